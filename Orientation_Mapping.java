@@ -4,12 +4,14 @@ import ij.gui.*;
 import ij.io.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.awt.*;
 import java.awt.event.*;
 import ij.plugin.filter.*;
 import ij.plugin.*;
 import filters.*;
 import mapping.*;
+import batch.*;
 
 public class Orientation_Mapping implements PlugInFilter, KeyListener, MouseListener {
 
@@ -17,13 +19,17 @@ public class Orientation_Mapping implements PlugInFilter, KeyListener, MouseList
   This ImageJ plugin allows to create RGB maps for grains with different
   orientations in HRTEM images of polycrystalline samples.
   
-  Version: 1.5 (2016-05-11, 12:45 mmohn)
+  Version: 1.6 (2026-10-19)
   
   Dependencies:
-  - mapping.MapRGB Version 1.0
+  - mapping.MapRGB Version 1.2
+  - mapping.OrientationMapper Version 1.0
   - filters.FilterMasks Version 1.1
-  - filters.Normalize Version 1.0
-  - filters.Padding Version 1.1
+  - filters.LocalFFT Version 1.0
+  - filters.Normalize Version 1.1
+  - filters.Padding Version 1.2
+  - filters.BufferPool Version 1.0
+  - batch.FolderWatcher Version 1.0
   
   Copyright (c) 2016 Michael Mohn and Ossi Lehtinen, Ulm University
     
@@ -53,21 +59,28 @@ public class Orientation_Mapping implements PlugInFilter, KeyListener, MouseList
 
   public int setup(String arg, ImagePlus imp) {
     this.imp = imp;
-    return DOES_32; // may be generalized to all images types: DOES_ALL
+    return DOES_8G+DOES_16+DOES_32+NO_CHANGES; // 8 and 16 bit images are converted on the fly
   }
   
   // Program information
   String pluginName = "OrientationMapping";
-  String pluginVersion = "1.3";
+  String pluginVersion = "1.5";
   
   // Global variables & default values
   int n = 3; // number of orientations
   int m = 6; // rotational symmetry
   boolean doNormalize = true;
   boolean saveLog = false;
+  boolean saveParameters = false; // parameter file for batch processing
+  boolean watchFolder = false; // process new frames in a folder (live acquisition)
+  int watchQueueSize = 4; // max. number of frames waiting for processing
   double stdDevRadius1; // radius of the stdDev filter (normalization)
   double stdDevRadius2; // radius of the stdDev filter (mapping)
   double blurRadius = 50; // radius of the Gaussian blur (normalization)
+  int method = OrientationMapper.GLOBAL; // global Fourier filtering or local FFTs
+  int windowSize = 128; // window width for local FFTs
+  int refineFactor = 3; // adaptive method: coarse pass with n/refineFactor orientations
+  double confidenceThreshold = 0.2; // adaptive method: refine if the two strongest orientations are closer
   int startHue, stopHue, hueRange; // hues range for RGB mapping
   boolean showNormalized, showFilterMasks, showFourierFiltered, showFiltered, show32bitStack, showRGBFilterMasks;
   
@@ -99,6 +112,9 @@ public class Orientation_Mapping implements PlugInFilter, KeyListener, MouseList
   OvalRoi maxCircle;
   Boolean isMaxCircle = false;
   
+  // background thread for the orientation mapping
+  ExecutorService executor;
+  
   // variables for the FilterMasks
   double r0, phi0; // position of the selected reflection
   double rmin, rmax; // radii for low and high freq. threshold
@@ -109,7 +125,9 @@ public class Orientation_Mapping implements PlugInFilter, KeyListener, MouseList
   
     // get the name of the original image
     originalTitle = imp.getTitle();
-    ip2 = ip.duplicate();
+    ip2 = ip; // not modified by the plugin, no copy needed
+    // 8 and 16 bit: calibrated values, like Image>Type>32-bit
+    if ( !(ip instanceof FloatProcessor) ) ip2.setCalibrationTable(imp.getCalibration().getCTable());
     width = ip2.getWidth();
     height = ip2.getHeight();
   
@@ -119,6 +137,8 @@ public class Orientation_Mapping implements PlugInFilter, KeyListener, MouseList
     gd.addNumericField("Number of orientations:", n, 0);
     gd.addNumericField("Rotational symmetry:", m, 0);
     gd.addCheckbox("Save log file", saveLog);
+    gd.addCheckbox("Save parameter file (batch processing)", saveParameters);
+    gd.addCheckbox("Watch folder (live acquisition)", watchFolder);
     gd.addMessage("--- C O N T R A S T   N O R M A L I Z A T I O N ---");
     gd.addCheckbox("Normalize contrast", doNormalize);
     gd.addNumericField("Radius for StdDev (px) [¹]:", stdDevRadius1, 2);
@@ -139,6 +159,11 @@ public class Orientation_Mapping implements PlugInFilter, KeyListener, MouseList
     gd.addMessage("--- S t d D e v   F I L T E R ---");
     gd.addNumericField("Radius for StdDev (px) [¹]:", stdDevRadius2, 2);
     gd.addMessage("[¹] StdDev radii <= 0 will replaced with an estimated value.");
+    gd.addMessage("--- M E T H O D ---");
+    gd.addChoice("Method", OrientationMapper.METHODS, OrientationMapper.METHODS[method]);
+    gd.addNumericField("Window size (px, local FFT only):", windowSize, 0);
+    gd.addNumericField("Refinement factor (adaptive only):", refineFactor, 0);
+    gd.addNumericField("Confidence threshold (adaptive only):", confidenceThreshold, 2);
     gd.showDialog();
     if ( gd.wasCanceled() ) {
       IJ.error("Plugin canceled!");
@@ -156,6 +181,8 @@ public class Orientation_Mapping implements PlugInFilter, KeyListener, MouseList
       return;
     }
     saveLog = gd.getNextBoolean();
+    saveParameters = gd.getNextBoolean();
+    watchFolder = gd.getNextBoolean();
     doNormalize = gd.getNextBoolean();
     stdDevRadius1 = gd.getNextNumber();
     blurRadius = gd.getNextNumber();
@@ -173,10 +200,28 @@ public class Orientation_Mapping implements PlugInFilter, KeyListener, MouseList
     if (stopHue <= startHue) stopHue += 360;
     hueRange = stopHue - startHue;
     stdDevRadius2 = gd.getNextNumber();
+    method = gd.getNextChoiceIndex();
+    windowSize = (int) Math.round(gd.getNextNumber());
+    if ((method == OrientationMapper.LOCAL) && (windowSize < 8)) {
+      IJ.error("Input Error", "Window size must be at least 8 px.");
+      return;
+    }
+    refineFactor = (int) Math.round(gd.getNextNumber());
+    confidenceThreshold = gd.getNextNumber();
+    if (method == OrientationMapper.ADAPTIVE) {
+      try {
+	createMapper().getCoarseCount();
+      } catch (IllegalArgumentException iae) {
+	IJ.error("Input Error", iae.getMessage() + ".");
+	return;
+      }
+    }
     
     // calculate and show the PowerSpectrum of the original image
-    fht = new FHT(Padding.getPaddedProcessor(ip));
     fhtSize = Padding.getPaddedSize(ip);
+    FloatProcessor paddedIp = new FloatProcessor(fhtSize, fhtSize);
+    Padding.padInto(ip2, paddedIp);
+    fht = new FHT(paddedIp);
     x0 = fhtSize/2;
     y0 = x0;
     fht.transform();
@@ -319,106 +364,138 @@ public class Orientation_Mapping implements PlugInFilter, KeyListener, MouseList
 	if (stdDevRadius1 <= 0) {
 	  stdDevRadius1 = fhtSize*2.0/r0;
 	}
-	
-	// create filter masks and show them
-	ImageStack filterMasksIs = FilterMasks.createStack(fhtSize, fhtSize, n, m, phi0, rmin, rmax);
-	if ( showFilterMasks ) {
-	  // filterMasksIs can't be duplicated or cloned, but duplicating the ImagePlus
-	  // prevents the displayed image from future modifications of filterMasksIs ...
-	  ImagePlus showImp = new ImagePlus("", filterMasksIs).duplicate();
-	  showImp.setTitle("Filter Masks for " + originalTitle); // image title without this line: "DUP_..."
-	  showImp.show();
-	  IJ.setMinAndMax(0, 1);
-	}
-	
-	// normalize the original image, and show it
-	if ( doNormalize ) {
-	  ip2 = Normalize.divideStdDevBlur(ip2, stdDevRadius1, blurRadius);
-	  if ( showNormalized ) {
-	    ImagePlus showImp1 = new ImagePlus("Normalized " + originalTitle, ip2.duplicate());
-	    showImp1.show();
-	    new ContrastEnhancer().stretchHistogram(showImp1, 0.5);
-	    showImp1.updateAndDraw();
-	  }
-	}
-	
-	// calculate the FHT of the original or normalized image
-	fht = new FHT(Padding.getPaddedProcessor(ip2));
-	fht.transform();
-	fht.swapQuadrants(); // zero freq. at center of image (like in PowerSpectrum)
-	
-	// for each orientation, multiply filter masks and FHT, and perform inverse transform
-	ImageStack fftFilteredIs = new ImageStack(width, height); // create an empty ImageStack
-	FHT tempFHT = fht; // initialize copy of the FHT
-	for (int s = 1; s <= n; s++) {
-	  tempFHT = fht.getCopy();
-	  tempFHT.copyBits(filterMasksIs.getProcessor(s), 0, 0, Blitter.MULTIPLY);
-	  tempFHT.swapQuadrants();
-	  tempFHT.inverseTransform();
-	  fftFilteredIs.addSlice("" + s, Padding.getCroppedProcessor(tempFHT.duplicate(), width, height));
-	}
-	
-	// show the FFT filtered images
-	if ( showFourierFiltered ) {
-	  ImagePlus showImp2 = new ImagePlus("FFT Filtered " + originalTitle, fftFilteredIs);
-	  showImp2.show();
-	  new ContrastEnhancer().stretchHistogram(showImp2, 0.5);
-	  showImp2.updateAndDraw();
-	}
-	
-	// apply variance filter and sqrt to the FFT filtered stack
-	ImageStack filteredIs = new ImageStack(width, height);
-	for (int s = 1; s <= n; s++) {
-	  ImageProcessor tempIp = fftFilteredIs.getProcessor(s).duplicate();
-	  new RankFilters().rank(tempIp, stdDevRadius2, RankFilters.VARIANCE);
-	  tempIp.sqrt();
-	  filteredIs.addSlice("" + s, tempIp);
-	}
-	
-	// show the filtered stack
-	if ( showFiltered ) {
-	  ImagePlus showImp3 = new ImagePlus("Filtered " + originalTitle, filteredIs);
-	  showImp3.show();
-	  new ContrastEnhancer().stretchHistogram(showImp3, 0.5);
-	  showImp3.updateAndDraw();
-	}
-	
-	// map filterMasks stack to 32 bit RGB stack, normalize and show it
-	if ( showRGBFilterMasks ) {
-	  ImagePlus filterMasksImp = new ImagePlus("", filterMasksIs);
-	  new StackConverter(filterMasksImp).convertToGray32();
-	  ImageStack mappedMasksIs = MapRGB.mapStackToRGB(filterMasksImp.getStack(), startHue, hueRange);
-	  double globalMaximum = 0;
-	  for (int s = 1; s <= 3; s++) {
-	    // apply a median filter to remove outliers at the overlap between adjacent segments
-	    new RankFilters().rank(mappedMasksIs.getProcessor(s), 2, RankFilters.MEDIAN);
-	    double tempMaximum = mappedMasksIs.getProcessor(s).getStatistics().max;
-	    globalMaximum = Math.max(globalMaximum, tempMaximum);
-	  }
-	  for (int s = 1; s <= 3; s++) {
-	    mappedMasksIs.getProcessor(s).multiply(1.0/globalMaximum);
+
+	// run the pipeline in the background, keeping ImageJ responsive
+	IJ.resetEscape();
+	executor = Executors.newSingleThreadExecutor();
+	executor.execute(new Runnable() {
+	  public void run() {
+	    try {
+	      runPipeline();
+	    } catch (Throwable t) {
+	      IJ.handleException(t);
+	    } finally {
+	      // reset ImageJ tool and progress bar
+	      IJ.setTool("rectangle");
+	      IJ.showProgress(1.0);
+	    }
 	  }
-	  ImagePlus mappedMasksImp = new ImagePlus("RGB Filter Mask for " + originalTitle, mappedMasksIs);
-	  new StackConverter(mappedMasksImp).convertToGray8();
-	  new ImageConverter(mappedMasksImp).convertRGBStackToRGB();
-	  mappedMasksImp.show();
-	}
+	});
+	executor.shutdown();
 	
-	// map filtered stack to a 32 bit RGB stack, normalize and show it
-	ImageStack mappedIs = MapRGB.mapStackToRGB(filteredIs, startHue, hueRange);
-	double globalMin = mappedIs.getProcessor(1).getStatistics().min;
-	double globalMax = mappedIs.getProcessor(1).getStatistics().max;
-	for (int s = 2; s <= 3; s++) {
-	  double tempMin = mappedIs.getProcessor(s).getStatistics().min;
-	  double tempMax = mappedIs.getProcessor(s).getStatistics().max;
-	  globalMin = Math.min(globalMin, tempMin);
-	  globalMax = Math.max(globalMax, tempMax);
+      } // END of step 3
+    } // END of "if getKeyChar == ..."
+  } // END of keyTyped
+  public void keyPressed(KeyEvent e) {}
+  public void keyReleased(KeyEvent e) {}
+
+  
+  /* Orientation mapping (background thread) */
+  
+  // copy the selected parameters to a new OrientationMapper
+  public OrientationMapper createMapper() {
+    OrientationMapper mapper = new OrientationMapper();
+    mapper.n = n;
+    mapper.m = m;
+    mapper.r0 = r0;
+    mapper.phi0 = phi0;
+    mapper.rmin = rmin;
+    mapper.rmax = rmax;
+    mapper.fhtSize = fhtSize;
+    mapper.doNormalize = doNormalize;
+    mapper.stdDevRadius1 = stdDevRadius1;
+    mapper.stdDevRadius2 = stdDevRadius2;
+    mapper.blurRadius = blurRadius;
+    mapper.startHue = startHue;
+    mapper.hueRange = hueRange;
+    mapper.method = method;
+    mapper.windowSize = windowSize;
+    mapper.refineFactor = refineFactor;
+    mapper.confidenceThreshold = confidenceThreshold;
+    return mapper;
+  }
+  
+  // show the filter masks and/or the RGB filter mask
+  public void displayFilterMasks(ImageStack filterMasksIs) {
+    // show the filter masks
+    if ( showFilterMasks ) {
+      // filterMasksIs can't be duplicated or cloned, but duplicating the ImagePlus
+      // prevents the displayed image from future modifications of filterMasksIs ...
+      ImagePlus showImp = new ImagePlus("", filterMasksIs).duplicate();
+      showImp.setTitle("Filter Masks for " + originalTitle); // image title without this line: "DUP_..."
+      showImp.show();
+      IJ.setMinAndMax(showImp, 0, 1);
+    }
+    // map filterMasks stack to 32 bit RGB stack, normalize and show it
+    if ( showRGBFilterMasks ) {
+      ImagePlus filterMasksImp = new ImagePlus("", filterMasksIs).duplicate();
+      new StackConverter(filterMasksImp).convertToGray32();
+      ImageStack mappedMasksIs = MapRGB.mapStackToRGB(filterMasksImp.getStack(), startHue, hueRange);
+      double globalMaximum = 0;
+      for (int s = 1; s <= 3; s++) {
+	// apply a median filter to remove outliers at the overlap between adjacent segments
+	new RankFilters().rank(mappedMasksIs.getProcessor(s), 2, RankFilters.MEDIAN);
+	double tempMaximum = mappedMasksIs.getProcessor(s).getStatistics().max;
+	globalMaximum = Math.max(globalMaximum, tempMaximum);
+      }
+      for (int s = 1; s <= 3; s++) {
+	mappedMasksIs.getProcessor(s).multiply(1.0/globalMaximum);
+      }
+      ImagePlus mappedMasksImp = new ImagePlus("RGB Filter Mask for " + originalTitle, mappedMasksIs);
+      new StackConverter(mappedMasksImp).convertToGray8();
+      new ImageConverter(mappedMasksImp).convertRGBStackToRGB();
+      mappedMasksImp.show();
+    }
+  }
+  
+  public void runPipeline() {
+    final OrientationMapper mapper = createMapper();
+    final ImageStack fftFilteredIs = new ImageStack(width, height);
+    final ImageStack filteredIs = new ImageStack(width, height);
+    // the orientation map is shown right away and updated after each orientation
+    final ImagePlus mapImp = new ImagePlus("Orientation Map of " + originalTitle, new ColorProcessor(width, height));
+    
+    mapper.setListener(new OrientationMapper.Listener() {
+      long lastUpdate; // of the displayed map
+
+      public void showStage(String stage, double progress) {
+	if ( IJ.escapePressed() ) mapper.cancel();
+	IJ.showStatus(stage + " (press ESC to cancel)");
+	IJ.showProgress(progress);
+      }
+      
+      public void filterMasksCreated(ImageStack filterMasksIs) {
+	displayFilterMasks(filterMasksIs);
+      }
+      
+      public void normalized(ImageProcessor normalizedIp) {
+	// show the normalized image
+	if ( showNormalized ) {
+	  ImagePlus showImp1 = new ImagePlus("Normalized " + originalTitle, normalizedIp.duplicate());
+	  showImp1.show();
+	  new ContrastEnhancer().stretchHistogram(showImp1, 0.5);
+	  showImp1.updateAndDraw();
 	}
-	double range = globalMax - globalMin;
-	for (int s = 1; s <= 3; s++) {
-	  mappedIs.getProcessor(s).subtract(globalMin);
-	  mappedIs.getProcessor(s).multiply(1.0/range);
+      }
+      
+      public void orientationDone(int s, ImageProcessor fftFilteredIp, ImageProcessor filteredIp, ImageStack mappedIs) {
+	// the images are reused by the mapper for the next orientation
+	if ( showFourierFiltered && (fftFilteredIp != null) ) fftFilteredIs.addSlice("" + s, fftFilteredIp.duplicate());
+	if ( showFiltered ) filteredIs.addSlice("" + s, filteredIp.duplicate());
+	// add the contribution of this orientation to the displayed map (at most
+	// every 200 ms, e.g. for the local FFTs, where all orientations are done at once)
+	long time = System.currentTimeMillis();
+	if ( (s > 1) && (s < n) && (time - lastUpdate < 200) ) return;
+	lastUpdate = time;
+	MapRGB.stackToColorProcessor(mappedIs, (ColorProcessor) mapImp.getProcessor());
+	if (s == 1) {
+	  mapImp.show();
+	} else {
+	  mapImp.updateAndDraw();
 	}
+      }
+      
+      public void mapped(ImageStack mappedIs) {
 	if ( show32bitStack ) {
 	  // mappedIs can't be duplicated or cloned, but duplicating the ImagePlus
 	  // prevents the displayed image from future modifications of mappedIs ...
@@ -428,50 +505,113 @@ public class Orientation_Mapping implements PlugInFilter, KeyListener, MouseList
 	  new ContrastEnhancer().stretchHistogram(showImp4, 0.5);
 	  showImp4.updateAndDraw();
 	}
-	
-	// convert to 8 bit and create RGB image
-	ImagePlus result = new ImagePlus("Orientation Map of " + originalTitle, mappedIs);
-	new ContrastEnhancer().stretchHistogram(result, 0.5); // very important for 8bit conversion
-	new StackConverter(result).convertToGray8();
-	new ImageConverter(result).convertRGBStackToRGB();
-	result.show();
-	
-	// save log file
-	if ( saveLog ) {
-	  SaveDialog sd = new SaveDialog("Save log file", "log", ".txt");
-	  String filepath = sd.getDirectory() + sd.getFileName();
-	  try{
-	    PrintWriter pw = new PrintWriter(new FileWriter(filepath));
-	    String firstLine = pluginName + " Version " + pluginVersion + ", " + new Date().toString();
-	    pw.println(firstLine);
-	    pw.println(firstLine.replaceAll(".", "-"));
-	    pw.println("Original Image:     " + originalTitle);
-	    if (doNormalize) {
-	      pw.println("Normalization:      StdDev r = " + String.format("%,.2f", stdDevRadius1) + " px");
-	      pw.println("                    Gaussian r = " + String.format("%,.2f", blurRadius) + " px");
-	    }
-	    pw.println("Reflection:         r = " + 
-			String.format("%,.2f", r0) + " px, phi = " + String.format("%,.2f", phi0) + " deg");
-	    pw.println("Bandpass filter:    rmin = " + 
-			String.format("%,.2f", rmin) + " px, rmax = " + String.format("%,.2f", rmax) + " px");
-	    int stopHue2 = startHue + hueRange;
-	    pw.println("Colors:             " + startHue + " <= hue <= " + stopHue2);
-	    pw.println("StdDev filter:      r = " + String.format("%,.2f", stdDevRadius2) + " px");
-	    pw.close();
-	  } catch (IOException ioe) {
-	    IJ.error("Error", "Could not save file " + filepath);
-	  }
+      }
+    });
+    
+    ImagePlus result = mapper.run(ip2, originalTitle);
+    if (result == null) {
+      IJ.resetEscape();
+      IJ.showStatus("Orientation mapping canceled");
+      if ( mapImp.isVisible() ) mapImp.setTitle("Orientation Map of " + originalTitle + " (canceled)");
+      return;
+    }
+    
+    // the local FFT and adaptive methods don't pass the (n) filter masks, create them for display only
+    if ( (method != OrientationMapper.GLOBAL) && (showFilterMasks || showRGBFilterMasks) ) {
+      displayFilterMasks(FilterMasks.createStack(fhtSize, fhtSize, n, m, phi0, rmin, rmax));
+    }
+    
+    // show the FFT filtered images (global method only)
+    if ( showFourierFiltered && (fftFilteredIs.getSize() > 0) ) {
+      ImagePlus showImp2 = new ImagePlus("FFT Filtered " + originalTitle, fftFilteredIs);
+      showImp2.show();
+      new ContrastEnhancer().stretchHistogram(showImp2, 0.5);
+      showImp2.updateAndDraw();
+    }
+    
+    // show the filtered stack
+    if ( showFiltered ) {
+      ImagePlus showImp3 = new ImagePlus("Filtered " + originalTitle, filteredIs);
+      showImp3.show();
+      new ContrastEnhancer().stretchHistogram(showImp3, 0.5);
+      showImp3.updateAndDraw();
+    }
+    
+    // replace the preview with the final orientation map
+    mapImp.setProcessor(result.getProcessor());
+    mapImp.show();
+    mapImp.updateAndDraw();
+    IJ.showStatus("");
+    
+    // save log file
+    if ( saveLog ) {
+      SaveDialog sd = new SaveDialog("Save log file", "log", ".txt");
+      String filepath = sd.getDirectory() + sd.getFileName();
+      try{
+	PrintWriter pw = new PrintWriter(new FileWriter(filepath));
+	String firstLine = pluginName + " Version " + pluginVersion + ", " + new Date().toString();
+	pw.println(firstLine);
+	pw.println(firstLine.replaceAll(".", "-"));
+	pw.println("Original Image:     " + originalTitle);
+	if (doNormalize) {
+	  pw.println("Normalization:      StdDev r = " + String.format("%,.2f", stdDevRadius1) + " px");
+	  pw.println("                    Gaussian r = " + String.format("%,.2f", blurRadius) + " px");
 	}
-	
-	// reset ImageJ tool and progress bar
-	IJ.setTool("rectangle");
-	IJ.showProgress(1.0);
-	
-      } // END of step 3
-    } // END of "if getKeyChar == ..."
-  } // END of keyTyped
-  public void keyPressed(KeyEvent e) {}
-  public void keyReleased(KeyEvent e) {}
+	pw.println("Reflection:         r = " + 
+		    String.format("%,.2f", r0) + " px, phi = " + String.format("%,.2f", phi0) + " deg");
+	pw.println("Bandpass filter:    rmin = " + 
+		    String.format("%,.2f", rmin) + " px, rmax = " + String.format("%,.2f", rmax) + " px");
+	int stopHue2 = startHue + hueRange;
+	pw.println("Colors:             " + startHue + " <= hue <= " + stopHue2);
+	if (method == OrientationMapper.LOCAL) {
+	  pw.println("Local FFT:          window = " + LocalFFT.getWindowSize(ip2, windowSize) + " px");
+	} else {
+	  pw.println("StdDev filter:      r = " + String.format("%,.2f", stdDevRadius2) + " px");
+	}
+	if (method == OrientationMapper.ADAPTIVE) {
+	  pw.println("Adaptive:           " + n/refineFactor + " coarse orientations, threshold = "
+		     + String.format("%,.2f", confidenceThreshold) + ", "
+		     + String.format("%,.1f", mapper.getRefinedFraction()*100) + "% refined");
+	}
+	pw.close();
+      } catch (IOException ioe) {
+	IJ.error("Error", "Could not save file " + filepath);
+      }
+    }
+    
+    // save parameter file (for batch processing)
+    if ( saveParameters ) {
+      SaveDialog sd = new SaveDialog("Save parameter file", "parameters", ".properties");
+      if (sd.getFileName() != null) {
+	String filepath = sd.getDirectory() + sd.getFileName();
+	try {
+	  mapper.saveParameters(filepath);
+	} catch (IOException ioe) {
+	  IJ.error("Error", "Could not save file " + filepath);
+	}
+      }
+    }
+    
+    // process new frames with the same parameters
+    if ( watchFolder ) {
+      String inDir = IJ.getDirectory("Select the folder to watch");
+      if (inDir == null) return;
+      String outDir = IJ.getDirectory("Select the output folder");
+      if (outDir == null) return;
+      FolderWatcher watcher = new FolderWatcher(createMapper(), new File(inDir), new File(outDir), watchQueueSize);
+      try {
+	watcher.start();
+      } catch (IOException ioe) {
+	IJ.error("Error", "Could not watch folder " + inDir + ":\n" + ioe.getMessage());
+	return;
+      }
+      new WaitForUserDialog("Orientation Mapping", "Watching " + inDir + " for new frames.\n"
+			    + "Orientation maps are saved to " + outDir + ".\n \n"
+			    + "Click OK to stop.").show();
+      watcher.stop();
+    }
+  
+  } // END of runPipeline
 
   
   
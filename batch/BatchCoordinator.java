@@ -0,0 +1,172 @@
+package batch;
+
+import java.io.*;
+import java.util.*;
+
+public class BatchCoordinator {
+
+/* Batch processing with several worker processes, OrientationMapping
+
+  Version: 1.0 (2026-10-19)
+
+  Distributes a list of images (or tiles, see BatchWorker) over several local
+  worker JVMs, each with its own heap, using a file based WorkQueue. Items of
+  workers which crashed are retried in a new round of workers, and the timing
+  logs of all items are merged into <output dir>/timing.log. A queue which
+  has been interrupted can be resumed by running the same command again.
+
+  The parameter file can be saved by the plugin ("Save parameter file").
+  Usage (ImageJ and the plugin directory on the classpath):
+
+    java -cp ij.jar:<plugin dir> batch.BatchCoordinator [options]
+	 <parameter file> <output dir> <image | @list file> ...
+
+  Options:
+    -workers N    number of worker processes (default: cores/8)
+    -threads N    threads per worker (default: cores/workers)
+    -heap SIZE    maximum heap per worker, e.g. 8g (default: JVM default)
+    -retries N    retries of failed items (default: 2)
+    -queue DIR    queue directory (default: <output dir>/queue)
+
+  Copyright (c) 2026 OrientationMapping contributors
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    ----------------------------------------------------------------------------
+*/
+
+  public static void main(String[] args) throws Exception {
+    int cores = Runtime.getRuntime().availableProcessors();
+    int workers = Math.max(1, cores/8);
+    int threads = 0;
+    String heap = null;
+    int retries = 2;
+    String queueDir = null;
+    ArrayList<String> positional = new ArrayList<String>();
+    try {
+      for (int i = 0; i < args.length; i++) {
+	if (args[i].equals("-workers")) workers = Integer.parseInt(args[++i]);
+	else if (args[i].equals("-threads")) threads = Integer.parseInt(args[++i]);
+	else if (args[i].equals("-heap")) heap = args[++i];
+	else if (args[i].equals("-retries")) retries = Integer.parseInt(args[++i]);
+	else if (args[i].equals("-queue")) queueDir = args[++i];
+	else positional.add(args[i]);
+      }
+    } catch (RuntimeException re) { // missing or invalid option value
+      positional.clear();
+    }
+    if (positional.size() < 3) {
+      System.err.println("Usage: batch.BatchCoordinator [-workers N] [-threads N] [-heap SIZE] [-retries N]\n"
+			 + "       [-queue DIR] <parameter file> <output dir> <image | @list file> ...");
+      System.exit(2);
+    }
+    workers = Math.max(1, workers);
+    if (threads <= 0) threads = Math.max(1, cores/workers);
+    String paramFile = new File(positional.get(0)).getAbsolutePath();
+    File outDir = new File(positional.get(1)).getAbsoluteFile();
+    outDir.mkdirs();
+    File queueFile = (queueDir == null) ? new File(outDir, "queue") : new File(queueDir).getAbsoluteFile();
+
+    // collect the work items
+    ArrayList<String> specs = new ArrayList<String>();
+    for (int i = 2; i < positional.size(); i++) {
+      String arg = positional.get(i);
+      if (arg.startsWith("@")) {
+	BufferedReader br = new BufferedReader(new FileReader(arg.substring(1)));
+	String line;
+	while ((line = br.readLine()) != null) {
+	  line = line.trim();
+	  if ( (line.length() > 0) && !line.startsWith("#") ) specs.add(line);
+	}
+	br.close();
+      } else {
+	specs.add(arg);
+      }
+    }
+    WorkQueue queue = new WorkQueue(queueFile, retries + 1);
+    List<String> ids = queue.addItems(specs);
+    int interrupted = queue.removeClaims(); // left over from an interrupted run
+    if (interrupted > 0) System.out.println(interrupted + " interrupted items are processed again");
+
+    // a new round of workers is only needed if workers crashed
+    long start = System.currentTimeMillis();
+    for (int round = 1; round <= retries + 1; round++) {
+      int pending = countPending(queue, ids);
+      if (pending == 0) break;
+      int nWorkers = Math.min(workers, pending);
+      System.out.println("Round " + round + ": " + pending + " pending items, " + nWorkers + " workers");
+      ArrayList<Process> processes = new ArrayList<Process>();
+      ArrayList<String> workerIds = new ArrayList<String>();
+      for (int w = 1; w <= nWorkers; w++) {
+	String workerId = "r" + round + "w" + w;
+	ArrayList<String> command = new ArrayList<String>();
+	command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+	if (heap != null) command.add("-Xmx" + heap);
+	command.add("-Djava.awt.headless=true");
+	command.add("-cp");
+	command.add(System.getProperty("java.class.path"));
+	command.add(BatchWorker.class.getName());
+	command.add(queueFile.getPath());
+	command.add(outDir.getPath());
+	command.add(paramFile);
+	command.add(workerId);
+	command.add("" + (retries + 1));
+	command.add("" + threads);
+	ProcessBuilder pb = new ProcessBuilder(command);
+	pb.redirectErrorStream(true);
+	pb.redirectOutput(ProcessBuilder.Redirect.appendTo(new File(queueFile, "worker-" + workerId + ".txt")));
+	processes.add(pb.start());
+	workerIds.add(workerId);
+      }
+      for (int w = 0; w < processes.size(); w++) {
+	int exitValue = processes.get(w).waitFor();
+	if (exitValue != 0) System.out.println("Worker " + workerIds.get(w) + " exited with " + exitValue);
+      }
+      int released = queue.releaseClaims(workerIds);
+      if (released > 0) System.out.println(released + " items released from crashed workers");
+    }
+    long elapsed = System.currentTimeMillis() - start;
+
+    // merge the timing logs (items of this list only)
+    int nDone = 0;
+    StringBuilder failures = new StringBuilder();
+    PrintWriter pw = new PrintWriter(new FileWriter(new File(outDir, "timing.log")));
+    pw.println("item\tworker\tstage\tms");
+    for (String id : ids) {
+      if ( queue.isDone(id) ) {
+	pw.print(queue.getLog(id));
+	nDone++;
+      } else {
+	failures.append(id + " (" + queue.getSpec(id) + "):\n" + queue.getFailureMessages(id));
+      }
+    }
+    pw.println("all\t-\tTotal (" + nDone + "/" + ids.size() + " items, " + workers + " workers)\t" + elapsed);
+    pw.close();
+    System.out.println(nDone + " of " + ids.size() + " items done in " + elapsed + " ms");
+    if (nDone < ids.size()) {
+      System.out.println("Failed items:\n" + failures);
+      System.exit(1);
+    }
+  }
+
+  static int countPending(WorkQueue queue, List<String> ids) throws IOException {
+    int count = 0;
+    for (String id : ids) {
+      if ( queue.isPending(id) ) count++;
+    }
+    return count;
+  }
+
+
+}
@@ -0,0 +1,141 @@
+package batch;
+
+import ij.*;
+import ij.io.*;
+import ij.process.*;
+import java.io.*;
+import filters.*;
+import mapping.*;
+
+public class BatchWorker {
+
+/* Worker process for batch processing, OrientationMapping
+
+  Version: 1.0 (2026-10-19)
+
+  Claims items from a WorkQueue and creates their orientation maps with a
+  fixed parameter file, until no pending items are left. Usually started by
+  the BatchCoordinator, i.e. one JVM (with its own heap) per worker:
+
+    java -Djava.awt.headless=true -cp <classpath> batch.BatchWorker
+	 <queue dir> <output dir> <parameter file> <worker id> <max. attempts> <threads>
+
+  Work items are image paths, optionally followed by a tile (in pixels):
+    /path/to/image.tif
+    /path/to/image.tif#x,y,width,height
+
+  Copyright (c) 2026 OrientationMapping contributors
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    ----------------------------------------------------------------------------
+*/
+
+  public static void main(String[] args) {
+    if (args.length < 6) {
+      System.err.println("Usage: batch.BatchWorker <queue dir> <output dir> <parameter file> "
+			 + "<worker id> <max. attempts> <threads>");
+      System.exit(2);
+    }
+    String workerId = args[3];
+    try {
+      WorkQueue queue = new WorkQueue(new File(args[0]), Integer.parseInt(args[4]));
+      File outDir = new File(args[1]);
+      outDir.mkdirs();
+      int threads = Integer.parseInt(args[5]);
+      Prefs.setThreads(threads);
+      // one mapper for all items, which reuses its buffers
+      OrientationMapper mapper = new OrientationMapper();
+      mapper.nThreads = threads;
+      String id;
+      while ((id = queue.claim(workerId)) != null) {
+	String spec = queue.getSpec(id);
+	try {
+	  String log = process(mapper, spec, outDir, args[2], id, workerId);
+	  queue.complete(id, log);
+	} catch (Throwable t) { // including OutOfMemoryError, which frees the heap
+	  queue.fail(id, t.toString());
+	  System.err.println("Worker " + workerId + ": " + spec + " failed: " + t);
+	}
+      }
+    } catch (Exception e) {
+      System.err.println("Worker " + workerId + ": " + e);
+      System.exit(1);
+    }
+    System.exit(0);
+  }
+
+  // create and save the orientation map of one item, return the timing log
+  static String process(OrientationMapper mapper, String spec, File outDir, String paramFile,
+			final String id, final String workerId) throws IOException {
+    final StringBuilder log = new StringBuilder();
+    final long[] stageStart = {System.currentTimeMillis()};
+    final String[] stage = {"Opening"};
+    long start = stageStart[0];
+
+    // parse item, open image (and crop tile)
+    String path = spec;
+    int[] tile = null;
+    int hash = spec.lastIndexOf('#');
+    if ( (hash > 0) && spec.substring(hash + 1).matches("\\d+,\\d+,\\d+,\\d+") ) {
+      path = spec.substring(0, hash);
+      String[] values = spec.substring(hash + 1).split(",");
+      tile = new int[4];
+      for (int i = 0; i < 4; i++) tile[i] = Integer.parseInt(values[i]);
+    }
+    ImagePlus imp = IJ.openImage(path);
+    if (imp == null) throw new IOException("Could not open " + path);
+    ImageProcessor ip = imp.getProcessor();
+    String title = WorkQueue.stripExtension(imp.getTitle());
+    if (tile != null) {
+      ip.setRoi(tile[0], tile[1], tile[2], tile[3]);
+      ip = ip.crop();
+      title += "_" + tile[0] + "_" + tile[1];
+    }
+    if (ip instanceof ColorProcessor) throw new IOException("RGB images are not supported: " + path);
+    // 8 and 16 bit images are converted to float on the fly (calibrated values)
+    if ( !(ip instanceof FloatProcessor) ) ip.setCalibrationTable(imp.getCalibration().getCTable());
+    imp.close();
+
+    // fixed parameters, radii in the FHT are scaled to the (padded) size of the item,
+    // StdDev radii are estimated for each item if needed
+    mapper.loadParameters(paramFile);
+    mapper.setFHTSize(Padding.getPaddedSize(ip));
+    mapper.estimateStdDevRadii(Padding.getPaddedSize(ip));
+    OrientationMapper.Listener timer = new OrientationMapper.Adapter() {
+      public void showStage(String newStage, double progress) {
+	long now = System.currentTimeMillis();
+	log.append(id + "\t" + workerId + "\t" + stage[0] + "\t" + (now - stageStart[0]) + "\n");
+	stage[0] = newStage;
+	stageStart[0] = now;
+      }
+    };
+    mapper.setListener(timer);
+    ImagePlus result = mapper.run(ip, title);
+    if (result == null) throw new IOException("Orientation mapping canceled");
+
+    // save the orientation map
+    timer.showStage("Saving", 1);
+    String name = title + "_map.tif";
+    if ( !new FileSaver(result).saveAsTiff(new File(outDir, name).getPath()) ) {
+      throw new IOException("Could not save " + name);
+    }
+    long now = System.currentTimeMillis();
+    log.append(id + "\t" + workerId + "\t" + stage[0] + "\t" + (now - stageStart[0]) + "\n");
+    log.append(id + "\t" + workerId + "\tTotal (" + spec + ")\t" + (now - start) + "\n");
+    return log.toString();
+  }
+
+
+}
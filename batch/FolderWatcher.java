@@ -0,0 +1,275 @@
+package batch;
+
+import ij.*;
+import ij.io.*;
+import ij.process.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import filters.*;
+import mapping.*;
+
+public class FolderWatcher {
+
+/* Watch-folder mode for live acquisition, OrientationMapping
+
+  Version: 1.0 (2026-10-19)
+
+  Watches a directory (java.nio.file.WatchService) and creates the orientation
+  map of each new (8, 16 or 32 bit) frame with a fixed parameter set (radii in
+  the FHT scaled to the size of the frame). Files which exist when the watcher
+  is started are ignored. New frames are passed to the processing thread
+  through a bounded queue: if frames arrive faster than they can be processed,
+  the watcher thread blocks (backpressure) instead of loading all frames into
+  memory, and the directory is rescanned if the WatchService overflows. A
+  frame is opened when it has not been modified for QUIET_TIME ms; if it is
+  modified after it has been opened (e.g. written in several steps), it is
+  processed again. The maps are saved as <frame>_map.tif in the output
+  directory, and the latency of each frame (from its detection until the map
+  has been saved) is written to the log window.
+
+  Started by the plugin ("Watch folder"), or without user interaction:
+
+    java -cp ij.jar:<plugin dir> batch.FolderWatcher <parameter file>
+	 <input dir> <output dir> [queue size]
+
+  Copyright (c) 2026 OrientationMapping contributors
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    ----------------------------------------------------------------------------
+*/
+
+  // a new file and the time it has been detected
+  static class Frame {
+    Path path;
+    long detected;
+    Frame(Path path, long detected) {
+      this.path = path;
+      this.detected = detected;
+    }
+  }
+
+  static final long QUIET_TIME = 500; // ms without modification before opening a frame
+  static final long PENDING = Long.MAX_VALUE; // see seen
+
+  OrientationMapper mapper;
+  Path inDir, outDir;
+  BlockingQueue<Frame> queue;
+  // last modification of each file when it was opened, PENDING while in the queue
+  Map<Path, Long> seen = Collections.synchronizedMap(new HashMap<Path, Long>());
+  WatchService watchService;
+  Thread watchThread, processThread;
+  volatile boolean running = false;
+  int nFrames = 0;
+  long totalLatency = 0;
+
+  public FolderWatcher(OrientationMapper mapper, File inDir, File outDir, int queueSize) {
+    this.mapper = mapper;
+    this.inDir = inDir.toPath().toAbsolutePath();
+    this.outDir = outDir.toPath().toAbsolutePath();
+    queue = new ArrayBlockingQueue<Frame>(Math.max(1, queueSize));
+  }
+
+  public void start() throws IOException {
+    Files.createDirectories(outDir);
+    watchService = FileSystems.getDefault().newWatchService();
+    inDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    scan(false); // existing files are not processed
+    running = true;
+    watchThread = new Thread(new Runnable() {
+      public void run() {
+	watch();
+      }
+    }, "OrientationMapping watcher");
+    processThread = new Thread(new Runnable() {
+      public void run() {
+	process();
+      }
+    }, "OrientationMapping frames");
+    watchThread.start();
+    processThread.start();
+    IJ.log("Watching " + inDir + " for new frames");
+  }
+
+  // stop watching, frames still in the queue are discarded
+  public void stop() {
+    running = false;
+    mapper.cancel();
+    try {
+      watchService.close();
+    } catch (IOException ioe) {}
+    watchThread.interrupt();
+    processThread.interrupt();
+    try {
+      watchThread.join();
+      processThread.join();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+    IJ.log("Stopped watching " + inDir + ": " + nFrames + " frames"
+	   + ((nFrames > 0) ? ", mean latency " + totalLatency/nFrames + " ms" : ""));
+  }
+
+  // watcher thread: put new files into the queue
+  void watch() {
+    try {
+      while (running) {
+	WatchKey key = watchService.take();
+	boolean overflow = false;
+	for (WatchEvent<?> event : key.pollEvents()) {
+	  if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+	    overflow = true;
+	  } else {
+	    add(inDir.resolve((Path) event.context()));
+	  }
+	}
+	if (overflow) scan(true); // events have been lost
+	if ( !key.reset() ) break; // directory no longer accessible
+      }
+    } catch (InterruptedException ie) {
+    } catch (ClosedWatchServiceException cwse) {
+    } catch (IOException ioe) {
+      IJ.log("Error while watching " + inDir + ": " + ioe);
+    }
+  }
+
+  // check all files of the input directory
+  void scan(boolean enqueue) throws IOException {
+    DirectoryStream<Path> ds = Files.newDirectoryStream(inDir);
+    try {
+      for (Path p : ds) {
+	if (enqueue) {
+	  add(p);
+	} else {
+	  seen.put(p, lastModified(p));
+	}
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    } finally {
+      ds.close();
+    }
+  }
+
+  // enqueue new files and files modified since they have been opened,
+  // blocks while the queue is full
+  void add(Path p) throws InterruptedException {
+    String name = p.getFileName().toString();
+    if ( name.startsWith(".") || name.endsWith(".tmp") || name.endsWith("_map.tif") || Files.isDirectory(p) ) return;
+    synchronized (seen) {
+      Long opened = seen.get(p);
+      if ( (opened != null) && (opened >= lastModified(p)) ) return; // queued or unchanged
+      seen.put(p, PENDING);
+    }
+    queue.put(new Frame(p, System.currentTimeMillis()));
+  }
+
+  static long lastModified(Path p) {
+    try {
+      return Files.getLastModifiedTime(p).toMillis();
+    } catch (IOException ioe) {
+      return 0;
+    }
+  }
+
+  // processing thread
+  void process() {
+    while (running) {
+      Frame frame;
+      try {
+	frame = queue.take();
+	waitForFile(frame.path);
+      } catch (InterruptedException ie) {
+	break;
+      }
+      // from now on, a modification queues the frame again
+      seen.put(frame.path, lastModified(frame.path));
+      long started = System.currentTimeMillis();
+      String name = frame.path.getFileName().toString();
+      try {
+	ImagePlus imp = IJ.openImage(frame.path.toString());
+	if (imp == null) {
+	  IJ.log(name + ": skipped (could not open file)");
+	  continue;
+	}
+	if (imp.getBitDepth() == 24) {
+	  IJ.log(name + ": skipped (RGB image)");
+	  continue;
+	}
+	ImageProcessor ip = imp.getProcessor();
+	// 8 and 16 bit frames are converted to float on the fly (calibrated values)
+	if ( !(ip instanceof FloatProcessor) ) ip.setCalibrationTable(imp.getCalibration().getCTable());
+	String title = WorkQueue.stripExtension(name);
+	// radii in the FHT are scaled if the frame has another (padded) size than the
+	// image the parameters were selected in, StdDev radii are estimated once
+	mapper.setFHTSize(Padding.getPaddedSize(ip));
+	mapper.estimateStdDevRadii(Padding.getPaddedSize(ip));
+	if (!running) break; // stopped while waiting
+	ImagePlus result = mapper.run(ip, title);
+	if (result == null) break; // stopped
+	new FileSaver(result).saveAsTiff(outDir.resolve(title + "_map.tif").toString());
+	long finished = System.currentTimeMillis();
+	long latency = finished - frame.detected;
+	nFrames++;
+	totalLatency += latency;
+	IJ.log(name + ": " + latency + " ms (queue " + (started - frame.detected)
+	       + " ms, mapping " + (finished - started) + " ms, " + queue.size() + " waiting)");
+      } catch (Exception e) {
+	IJ.log(name + ": failed (" + e + ")");
+      }
+    }
+  }
+
+  // wait until the file has been neither modified nor resized for QUIET_TIME ms,
+  // i.e. the frame has (most likely) been written completely
+  static void waitForFile(Path p) throws InterruptedException {
+    long size = -1;
+    long changed = System.currentTimeMillis();
+    try {
+      while (true) {
+	long now = System.currentTimeMillis();
+	long newSize = Files.size(p);
+	if (newSize != size) {
+	  size = newSize;
+	  changed = now;
+	}
+	long quiet = Math.min(now - changed, now - Files.getLastModifiedTime(p).toMillis());
+	if (quiet >= QUIET_TIME) return;
+	Thread.sleep(Math.min(QUIET_TIME - quiet, 100));
+      }
+    } catch (IOException ioe) {} // reported when opening the file
+  }
+
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 3) {
+      System.err.println("Usage: batch.FolderWatcher <parameter file> <input dir> <output dir> [queue size]");
+      System.exit(2);
+    }
+    OrientationMapper mapper = new OrientationMapper();
+    mapper.loadParameters(args[0]);
+    int queueSize = (args.length > 3) ? Integer.parseInt(args[3]) : 4;
+    final FolderWatcher watcher = new FolderWatcher(mapper, new File(args[1]), new File(args[2]), queueSize);
+    watcher.start();
+    Runtime.getRuntime().addShutdownHook(new Thread() { // Ctrl-C
+      public void run() {
+	watcher.stop();
+      }
+    });
+  }
+
+
+}
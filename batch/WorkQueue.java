@@ -0,0 +1,224 @@
+package batch;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+
+public class WorkQueue {
+
+/* File based work queue for batch processing, OrientationMapping
+
+  Version: 1.0 (2026-10-19)
+
+  The queue is a directory, which can be shared by several processes:
+  - items/<id>.item          one work item (image path or tile, see BatchWorker),
+                             the id is derived from the item (see getId)
+  - claims/<id>.claim        item is being processed (contains the worker id)
+  - done/<id>.done           item has been processed successfully
+  - failed/<id>.<k>.failed   k'th failed attempt (contains the error message)
+  - logs/<id>.log            timing log of the successful attempt
+  A claim is created with CREATE_NEW, which is atomic, i.e. only one worker
+  can claim an item. Failed items are released and can be claimed again,
+  until maxAttempts failures have been recorded.
+
+  Copyright (c) 2026 OrientationMapping contributors
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    ----------------------------------------------------------------------------
+*/
+
+  Path items, claims, done, failed, logs;
+  int maxAttempts;
+
+  public WorkQueue(File dir, int maxAttempts) throws IOException {
+    Path root = dir.toPath();
+    items = Files.createDirectories(root.resolve("items"));
+    claims = Files.createDirectories(root.resolve("claims"));
+    done = Files.createDirectories(root.resolve("done"));
+    failed = Files.createDirectories(root.resolve("failed"));
+    logs = Files.createDirectories(root.resolve("logs"));
+    this.maxAttempts = Math.max(1, maxAttempts);
+  }
+
+  /* Add work items and return their ids (in the same order). Items which are
+     already in the queue are kept with their state, i.e. a queue can be resumed,
+     also with a list containing further items.
+  */
+  public List<String> addItems(List<String> specs) throws IOException {
+    ArrayList<String> ids = new ArrayList<String>();
+    for (String spec : specs) {
+      String id = getId(spec);
+      Path item = items.resolve(id + ".item");
+      if ( !Files.exists(item) ) {
+	writeText(item, spec);
+      } else if ( !getSpec(id).equals(spec.trim()) ) {
+	throw new IOException("Work item " + id + " (" + getSpec(id) + ") does not match " + spec);
+      }
+      if ( !ids.contains(id) ) ids.add(id);
+    }
+    return ids;
+  }
+
+  // the same image (or tile) always gets the same id: first 16 hex digits of its SHA-1
+  public static String getId(String spec) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(spec.trim().getBytes(StandardCharsets.UTF_8));
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < 8; i++) sb.append(String.format("%02x", digest[i] & 0xff));
+      return sb.toString();
+    } catch (NoSuchAlgorithmException nsae) { // SHA-1 is available in every Java platform
+      throw new RuntimeException(nsae);
+    }
+  }
+
+  public List<String> getIds() throws IOException {
+    ArrayList<String> ids = new ArrayList<String>();
+    DirectoryStream<Path> ds = Files.newDirectoryStream(items, "*.item");
+    try {
+      for (Path p : ds) ids.add(stripExtension(p.getFileName().toString()));
+    } finally {
+      ds.close();
+    }
+    Collections.sort(ids);
+    return ids;
+  }
+
+  public String getSpec(String id) throws IOException {
+    return readText(items.resolve(id + ".item")).trim();
+  }
+
+  public boolean isDone(String id) {
+    return Files.exists(done.resolve(id + ".done"));
+  }
+
+  public boolean isClaimed(String id) {
+    return Files.exists(claims.resolve(id + ".claim"));
+  }
+
+  public int getFailures(String id) throws IOException {
+    int count = 0;
+    DirectoryStream<Path> ds = Files.newDirectoryStream(failed, id + ".*.failed");
+    try {
+      for (Path p : ds) count++;
+    } finally {
+      ds.close();
+    }
+    return count;
+  }
+
+  // neither done nor given up
+  public boolean isPending(String id) throws IOException {
+    return !isDone(id) && (getFailures(id) < maxAttempts);
+  }
+
+  // claim the next pending item, or return null if there is none
+  public String claim(String workerId) throws IOException {
+    for (String id : getIds()) {
+      if ( !isPending(id) || isClaimed(id) ) continue;
+      try {
+	Files.write(claims.resolve(id + ".claim"), workerId.getBytes(StandardCharsets.UTF_8),
+		    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+      } catch (FileAlreadyExistsException faee) {
+	continue; // claimed by another worker in the meantime
+      }
+      if ( isDone(id) ) { // completed in the meantime
+	Files.deleteIfExists(claims.resolve(id + ".claim"));
+	continue;
+      }
+      return id;
+    }
+    return null;
+  }
+
+  public void complete(String id, String log) throws IOException {
+    writeText(logs.resolve(id + ".log"), log);
+    writeText(done.resolve(id + ".done"), "");
+    Files.deleteIfExists(claims.resolve(id + ".claim"));
+  }
+
+  // record a failed attempt and release the claim
+  public void fail(String id, String message) throws IOException {
+    int attempt = getFailures(id) + 1;
+    writeText(failed.resolve(id + "." + attempt + ".failed"), message);
+    Files.deleteIfExists(claims.resolve(id + ".claim"));
+  }
+
+  // mark items claimed by workers which crashed as failed
+  public int releaseClaims(Collection<String> workerIds) throws IOException {
+    int count = 0;
+    for (String id : getIds()) {
+      Path claim = claims.resolve(id + ".claim");
+      if ( !Files.exists(claim) ) continue;
+      String workerId = readText(claim).trim();
+      if ( workerIds.contains(workerId) ) {
+	if ( isDone(id) ) {
+	  Files.deleteIfExists(claim);
+	} else {
+	  fail(id, "Worker " + workerId + " exited while processing this item.");
+	  count++;
+	}
+      }
+    }
+    return count;
+  }
+
+  // remove the claims of an interrupted run (not counted as failed attempts)
+  public int removeClaims() throws IOException {
+    int count = 0;
+    for (String id : getIds()) {
+      if ( Files.deleteIfExists(claims.resolve(id + ".claim")) && !isDone(id) ) count++;
+    }
+    return count;
+  }
+
+  public String getLog(String id) throws IOException {
+    Path log = logs.resolve(id + ".log");
+    return Files.exists(log) ? readText(log) : "";
+  }
+
+  // messages of all failed attempts
+  public String getFailureMessages(String id) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    int attempts = getFailures(id);
+    for (int k = 1; k <= attempts; k++) {
+      Path p = failed.resolve(id + "." + k + ".failed");
+      if ( Files.exists(p) ) sb.append("  attempt " + k + ": " + readText(p).trim() + "\n");
+    }
+    return sb.toString();
+  }
+
+
+  /* helper methods */
+
+  static String stripExtension(String name) {
+    int dot = name.lastIndexOf('.');
+    return (dot < 0) ? name : name.substring(0, dot);
+  }
+
+  // write to a temporary file first, so readers never see incomplete files
+  static void writeText(Path path, String text) throws IOException {
+    Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+    Files.write(temp, text.getBytes(StandardCharsets.UTF_8));
+    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  static String readText(Path path) throws IOException {
+    return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+  }
+
+
+}
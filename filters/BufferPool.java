@@ -0,0 +1,81 @@
+package filters;
+
+import ij.process.*;
+import java.util.*;
+
+public class BufferPool {
+
+/* Reusable float buffers (image planes), OrientationMapping
+
+  Version: 1.0 (2026-10-19)
+
+  Buffers are kept after release() and handed out again by get() for the
+  same length, i.e. repeated runs (orientations, images of a batch) allocate
+  each plane only once. The contents of a buffer returned by get() are
+  undefined.
+
+  Copyright (c) 2026 OrientationMapping contributors
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    ----------------------------------------------------------------------------
+*/
+
+  HashMap<Integer, ArrayDeque<float[]>> free = new HashMap<Integer, ArrayDeque<float[]>>();
+  int allocated = 0; // number of buffers allocated so far
+
+  public synchronized float[] get(int length) {
+    ArrayDeque<float[]> buffers = free.get(length);
+    if ( (buffers != null) && !buffers.isEmpty() ) return buffers.pop();
+    allocated++;
+    return new float[length];
+  }
+
+  public synchronized void release(float[] buffer) {
+    if (buffer == null) return;
+    ArrayDeque<float[]> buffers = free.get(buffer.length);
+    if (buffers == null) {
+      buffers = new ArrayDeque<float[]>();
+      free.put(buffer.length, buffers);
+    }
+    buffers.push(buffer);
+  }
+
+  // 32 bit image backed by a pooled buffer
+  public FloatProcessor getProcessor(int width, int height) {
+    return new FloatProcessor(width, height, get(width*height), null);
+  }
+
+  // same as above, all pixels set to zero
+  public FloatProcessor getZeroProcessor(int width, int height) {
+    float[] buffer = get(width*height);
+    Arrays.fill(buffer, 0);
+    return new FloatProcessor(width, height, buffer, null);
+  }
+
+  public void release(ImageProcessor ip) {
+    if (ip != null) release((float[]) ip.getPixels());
+  }
+
+  public synchronized int getAllocated() {
+    return allocated;
+  }
+
+  // forget all released buffers (e.g. when the image size changes)
+  public synchronized void clear() {
+    free.clear();
+  }
+
+
+}
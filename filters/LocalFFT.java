@@ -0,0 +1,227 @@
+package filters;
+
+import ij.*;
+import ij.process.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class LocalFFT {
+
+/* Orientation strengths from local (windowed) FFTs, OrientationMapping
+
+  Version: 1.0 (2026-10-19)
+
+  Alternative to the global Fourier filtering: overlapping square windows
+  (power-of-two width, 50% overlap) are Hann-windowed and transformed
+  separately. For each window, the spectral energy within the n filter mask
+  sectors (FilterMasks, scaled to the window size) yields the RMS amplitude
+  of each orientation, i.e. the same quantity as the StdDev filter in the
+  global approach. The per-window values are interpolated bilinearly to the
+  full image size, one orientation at a time into the same buffer. Windows
+  are independent and processed in parallel, the calculation can be stopped
+  after each row of windows and after each orientation (see Monitor).
+
+  Copyright (c) 2026 OrientationMapping contributors
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    ----------------------------------------------------------------------------
+*/
+
+  // called in the calling thread, e.g. to show the progress; returns true to
+  // stop the calculation
+  public interface Monitor {
+    // after each finished row of windows
+    boolean rowDone(int rows, int nRows);
+    // strengths of orientation s (1 ... n) in the target, which is overwritten
+    // for the next orientation
+    boolean orientationDone(int s, FloatProcessor target);
+  }
+
+  // largest power of two <= windowSize which fits into the image
+  public static int getWindowSize(ImageProcessor ip, int windowSize) {
+    int maxDim = Math.min(windowSize, Math.min(ip.getWidth(), ip.getHeight()));
+    int newDim = 2;
+    while (2*newDim <= maxDim) newDim *= 2;
+    return newDim;
+  }
+
+  // local strength of each orientation, passed to the monitor one by one
+  public static boolean filter(ImageProcessor ip, int windowSize, int fhtSize, int n, int m,
+			       double phi0, double rmin, double rmax, int nThreads, FloatProcessor target, Monitor monitor) {
+  /* Arguments:
+     ---------------------------------------------------
+     ip			input image
+     windowSize		(maximum) width of the windows
+     fhtSize		size of the global FHT, which rmin and rmax refer to
+     n			number of orientations
+     m			rotational symmetry of the masks
+     phi0		offset angle
+     rmin, rmax		limits for bandpass filtering
+     nThreads		number of threads
+     target		buffer for the strengths of one orientation (image size)
+     monitor		progress, results and cancel check
+     ---------------------------------------------------
+     Returns false if stopped by the monitor or interrupted.
+  */
+    final ImageProcessor ip2 = ip;
+    final int width = ip.getWidth();
+    final int height = ip.getHeight();
+    final int w = getWindowSize(ip, windowSize);
+    final int nOrientations = n;
+    double scale = w*1.0/fhtSize;
+
+    // pixel indices of each sector, in the (unswapped) layout of the FHT
+    ImageStack masksIs = FilterMasks.createStack(w, w, n, m, phi0, rmin*scale, rmax*scale);
+    final int[][] sectors = new int[n][];
+    for (int s = 1; s <= n; s++) {
+      byte[] mask = (byte[]) masksIs.getPixels(s);
+      int count = 0;
+      for (int p = 0; p < mask.length; p++) if (mask[p] != 0) count++;
+      sectors[s-1] = new int[count];
+      count = 0;
+      for (int j = 0; j < w; j++) {
+	for (int i = 0; i < w; i++) {
+	  if (mask[j*w + i] != 0) sectors[s-1][count++] = ((j + w/2)%w)*w + (i + w/2)%w;
+	}
+      }
+    }
+
+    // Hann window
+    final float[] hann = new float[w*w];
+    double sumHann2 = 0;
+    for (int j = 0; j < w; j++) {
+      for (int i = 0; i < w; i++) {
+	double h = Math.sin(Math.PI*(i + 0.5)/w)*Math.sin(Math.PI*(j + 0.5)/w);
+	hann[j*w + i] = (float) (h*h);
+	sumHann2 += h*h*h*h;
+      }
+    }
+    // Parseval: sum of FHT^2 = w*w * sum of (windowed) pixel values^2
+    final double norm = 1.0/(w*w*sumHann2);
+
+    // window positions (top left corners), first and last window at the image borders
+    final int[] xPos = getPositions(width, w);
+    final int[] yPos = getPositions(height, w);
+    final float[][][] strengths = new float[n][yPos.length][xPos.length];
+
+    // one task per row of windows
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, nThreads));
+    ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+    for (int gy = 0; gy < yPos.length; gy++) {
+      final int row = gy;
+      futures.add(executor.submit(new Runnable() {
+	public void run() {
+	  FHT fht = new FHT(new FloatProcessor(w, w));
+	  float[] data = (float[]) fht.getPixels();
+	  for (int gx = 0; gx < xPos.length; gx++) {
+	    if ( Thread.currentThread().isInterrupted() ) return; // stopped
+	    // copy the window (converted to float) and subtract its mean
+	    for (int j = 0; j < w; j++) Padding.copyToFloat(ip2, xPos[gx], yPos[row] + j, w, data, j*w);
+	    double sum = 0;
+	    for (int p = 0; p < data.length; p++) sum += data[p];
+	    float mean = (float) (sum/(w*w));
+	    for (int p = 0; p < data.length; p++) data[p] = (data[p] - mean)*hann[p];
+	    fht.transform();
+	    // energy within each sector: power = (H(k)^2 + H(-k)^2)/2
+	    for (int s = 0; s < nOrientations; s++) {
+	      double energy = 0;
+	      for (int p : sectors[s]) {
+		int x = p%w;
+		int y = p/w;
+		float h1 = data[p];
+		float h2 = data[((w - y)%w)*w + (w - x)%w];
+		energy += 0.5*(h1*h1 + h2*h2);
+	      }
+	      strengths[s][row][gx] = (float) Math.sqrt(energy*norm);
+	    }
+	  }
+	}
+      }));
+    }
+    executor.shutdown();
+    try {
+      for (int r = 0; r < futures.size(); r++) {
+	futures.get(r).get();
+	if ( monitor.rowDone(r + 1, futures.size()) ) {
+	  executor.shutdownNow();
+	  return false;
+	}
+      }
+    } catch (InterruptedException ie) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (ExecutionException ee) {
+      throw new RuntimeException(ee.getCause());
+    }
+
+    // interpolate to full resolution, between the window centers
+    for (int s = 1; s <= n; s++) {
+      interpolate(strengths[s-1], xPos, yPos, w, (float[]) target.getPixels(), width, height);
+      if ( monitor.orientationDone(s, target) ) return false;
+    }
+    return true;
+  }
+
+  // positions of windows of width w with (at least) 50% overlap
+  static int[] getPositions(int length, int w) {
+    int step = w/2;
+    int nWindows = (length - w + step - 1)/step + 1;
+    int[] positions = new int[nWindows];
+    for (int g = 0; g < nWindows; g++) {
+      positions[g] = (nWindows == 1) ? (length - w)/2 :
+		     (int) Math.round(g*(length - w)*1.0/(nWindows - 1));
+    }
+    return positions;
+  }
+
+  // bilinear interpolation of grid values at the window centers
+  static void interpolate(float[][] grid, int[] xPos, int[] yPos, int w, float[] target, int width, int height) {
+    int[] gx0 = new int[width];
+    float[] fx = new float[width];
+    for (int x = 0; x < width; x++) {
+      gx0[x] = findCell(xPos, w, x);
+      fx[x] = getFraction(xPos, w, gx0[x], x);
+    }
+    for (int y = 0; y < height; y++) {
+      int gy0 = findCell(yPos, w, y);
+      float fy = getFraction(yPos, w, gy0, y);
+      int gy1 = Math.min(gy0 + 1, yPos.length - 1);
+      for (int x = 0; x < width; x++) {
+	int gx1 = Math.min(gx0[x] + 1, xPos.length - 1);
+	float top = grid[gy0][gx0[x]]*(1 - fx[x]) + grid[gy0][gx1]*fx[x];
+	float bottom = grid[gy1][gx0[x]]*(1 - fx[x]) + grid[gy1][gx1]*fx[x];
+	target[y*width + x] = top*(1 - fy) + bottom*fy;
+      }
+    }
+  }
+
+  // index of the last window center <= x (or 0)
+  static int findCell(int[] positions, int w, int x) {
+    int g = 0;
+    while ((g < positions.length - 1) && (positions[g + 1] + w/2 <= x)) g++;
+    return g;
+  }
+
+  // relative position of x between the centers of windows g and g+1
+  static float getFraction(int[] positions, int w, int g, int x) {
+    if (g >= positions.length - 1) return 0;
+    double c0 = positions[g] + w/2;
+    double c1 = positions[g + 1] + w/2;
+    return (float) Math.min(1, Math.max(0, (x - c0)/(c1 - c0)));
+  }
+
+
+}
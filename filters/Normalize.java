@@ -8,7 +8,7 @@ public class Normalize {
 
 /* Methods for image (contrast) normalization, OrientationMapping
 
-  Version: 1.0 (2015-02-22, 21:01 mmohn)
+  Version: 1.1 (2026-10-19)
   
   Copyright (c) 2015 Michael Mohn and Ossi Lehtinen, Ulm University
     
@@ -41,6 +41,24 @@ public class Normalize {
     return normIp;
   }
   
+  /* Same as above, without allocating new images: stdDevIp is used as
+     temporary image, the result is written to targetIp (both 32 bit, same
+     size as ip). 8 and 16 bit images are converted to float on the fly.
+  */
+  public static void divideStdDevBlur(ImageProcessor ip, double varRadius, double blurRadius,
+				      FloatProcessor stdDevIp, FloatProcessor targetIp) {
+    int width = ip.getWidth();
+    int height = ip.getHeight();
+    float[] stdDevPixels = (float[]) stdDevIp.getPixels();
+    for (int y = 0; y < height; y++) Padding.copyToFloat(ip, 0, y, width, stdDevPixels, y*width);
+    new RankFilters().rank(stdDevIp, varRadius, RankFilters.VARIANCE);
+    stdDevIp.sqrt();
+    new GaussianBlur().blurGaussian(stdDevIp, blurRadius, blurRadius, .01);
+    float[] targetPixels = (float[]) targetIp.getPixels();
+    for (int y = 0; y < height; y++) Padding.copyToFloat(ip, 0, y, width, targetPixels, y*width);
+    targetIp.copyBits(stdDevIp, 0, 0, Blitter.DIVIDE);
+  }
+  
   // Normalization of image intensity with Gaussian Blur
   public static ImageProcessor subtractBlurred(ImageProcessor ip, double blurRadius) {
     ImageProcessor normIp = ip.duplicate();
@@ -2,12 +2,13 @@ package filters;
 
 import ij.*;
 import ij.process.*;
+import java.util.*;
 
 public class Padding {
 
 /* Methods for image padding for the FHT, OrientationMapping
 
-  Version: 1.1 (2016-05-11, 12:21 mmohn)
+  Version: 1.2 (2026-10-19)
   
   Copyright (c) 2016 Michael Mohn and Ossi Lehtinen, Ulm University
     
@@ -84,5 +85,92 @@ public class Padding {
     return newIp;
   }
 
+  
+  // same as getPaddedProcessor, but without allocating a new image:
+  // target has to be a square 32 bit image with width getPaddedSize(ip).
+  // 8 and 16 bit images are converted on the fly (see copyToFloat).
+  public static void padInto(ImageProcessor ip, FloatProcessor target) {
+    int width = ip.getWidth();
+    int height = ip.getHeight();
+    int newDim = target.getWidth();
+    float[] pixels = (float[]) target.getPixels();
+    int xOff = (newDim - width) / 2;
+    int yOff = (newDim - height) / 2;
+    for (int y = 0; y < height; y++) {
+      copyToFloat(ip, 0, y, width, pixels, (y + yOff)*newDim + xOff);
+    }
+    if ( (newDim != width) || (newDim != height) ) {
+      float mean = (float) getMean(ip);
+      for (int y = 0; y < newDim; y++) {
+	if ( (y < yOff) || (y >= yOff + height) ) {
+	  Arrays.fill(pixels, y*newDim, (y + 1)*newDim, mean);
+	} else {
+	  Arrays.fill(pixels, y*newDim, y*newDim + xOff, mean);
+	  Arrays.fill(pixels, y*newDim + xOff + width, (y + 1)*newDim, mean);
+	}
+      }
+    }
+  }
+  
+  /* Copy length pixels of row y (starting at x) of ip to target[offset ...],
+     converting 8 and 16 bit values to float like ImageProcessor.convertToFloat,
+     i.e. using the calibration table of ip (if any)
+  */
+  public static void copyToFloat(ImageProcessor ip, int x, int y, int length, float[] target, int offset) {
+    int width = ip.getWidth();
+    Object pixels = ip.getPixels();
+    if (pixels instanceof float[]) {
+      System.arraycopy(pixels, y*width + x, target, offset, length);
+      return;
+    }
+    float[] cTable = ip.getCalibrationTable();
+    int index = y*width + x;
+    if (pixels instanceof byte[]) {
+      if ( (cTable != null) && (cTable.length != 256) ) cTable = null;
+      byte[] bytes = (byte[]) pixels;
+      for (int i = 0; i < length; i++) {
+	int v = bytes[index + i] & 0xff;
+	target[offset + i] = (cTable == null) ? v : cTable[v];
+      }
+    } else if (pixels instanceof short[]) {
+      if ( (cTable != null) && (cTable.length != 65536) ) cTable = null;
+      short[] shorts = (short[]) pixels;
+      for (int i = 0; i < length; i++) {
+	int v = shorts[index + i] & 0xffff;
+	target[offset + i] = (cTable == null) ? v : cTable[v];
+      }
+    } else {
+      throw new IllegalArgumentException("8, 16 or 32 bit grayscale image required");
+    }
+  }
+  
+  // mean pixel value of the whole image (converted to float), the roi is ignored
+  public static double getMean(ImageProcessor ip) {
+    int width = ip.getWidth();
+    int height = ip.getHeight();
+    float[] row = new float[width];
+    double sum = 0;
+    for (int y = 0; y < height; y++) {
+      copyToFloat(ip, 0, y, width, row, 0);
+      for (int x = 0; x < width; x++) sum += row[x];
+    }
+    return sum/(width*height);
+  }
+  
+  // same as getCroppedProcessor, but without allocating a new image:
+  // the center of the (32 bit) ip is copied to the (32 bit) target
+  public static void cropInto(ImageProcessor ip, FloatProcessor target) {
+    int origWidth = ip.getWidth();
+    int origHeight = ip.getHeight();
+    int width = target.getWidth();
+    int height = target.getHeight();
+    float[] source = (float[]) ip.getPixels();
+    float[] pixels = (float[]) target.getPixels();
+    int xOff = (origWidth - width) / 2;
+    int yOff = (origHeight - height) / 2;
+    for (int y = 0; y < height; y++) {
+      System.arraycopy(source, (y + yOff)*origWidth + xOff, pixels, y*width, width);
+    }
+  }
 
 }
\ No newline at end of file
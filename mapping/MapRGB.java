@@ -2,12 +2,13 @@ package mapping;
 
 import ij.*;
 import ij.process.*;
+import filters.*;
 
 public class MapRGB {
 
 /* Methods for RGB Stacks, OrientationMapping
 
-  Version: 1.1 (2015-02-24, 16:09 mmohn)
+  Version: 1.2 (2026-10-19)
   
   Copyright (c) 2015 Michael Mohn and Ossi Lehtinen, Ulm University
     
@@ -29,27 +30,69 @@ public class MapRGB {
 
   // map an n slice stack to a 3-slice RGB stack, using n different colors
   public static ImageStack mapStackToRGB(ImageStack inputIs, int startHue, int hueRange) {    
-    ImageStack targetIs = new ImageStack(inputIs.getWidth(), inputIs.getHeight()); // empty stack
+    ImageStack targetIs = createRGBStack(inputIs.getWidth(), inputIs.getHeight());
     int n = inputIs.getSize();
-    double stepSize = (hueRange == 360) ? hueRange*1.0/n : hueRange*1.0/(n-1);
-    String[] colorStr = {"Red", "Green", "Blue"};
     for (int s = 1; s <= n; s++) {
-      int hue = (int) startHue + (int) Math.round( (s-1)*stepSize );
-      int[] rgb = hueToRGB(hue%360);
-      ImageProcessor tempIp = inputIs.getProcessor(s).duplicate(); // initialize
-      for (int i = 0; i < 3; i++) {
-	tempIp = inputIs.getProcessor(s).duplicate();
-	tempIp.multiply(rgb[i]*1.0/n);
-	if (s == 1) {
-	  targetIs.addSlice(colorStr[i], tempIp);
-	} else {
-	  targetIs.getProcessor(i+1).copyBits(tempIp, 0, 0, Blitter.ADD);
-	}
-      }
+      addToRGB(targetIs, inputIs.getProcessor(s), s, n, startHue, hueRange);
     }
     return targetIs;
   }
   
+  // create an empty (zero) 32 bit, 3-slice RGB stack
+  public static ImageStack createRGBStack(int width, int height) {
+    ImageStack targetIs = ImageStack.create(width, height, 3, 32);
+    String[] colorStr = {"Red", "Green", "Blue"};
+    for (int i = 0; i < 3; i++) targetIs.setSliceLabel(colorStr[i], i+1);
+    return targetIs;
+  }
+  
+  // same as above, with buffers of the pool (to be released by the caller)
+  public static ImageStack createRGBStack(int width, int height, BufferPool pool) {
+    ImageStack targetIs = new ImageStack(width, height);
+    String[] colorStr = {"Red", "Green", "Blue"};
+    for (int i = 0; i < 3; i++) targetIs.addSlice(colorStr[i], pool.getZeroProcessor(width, height));
+    return targetIs;
+  }
+  
+  // add the s'th of n slices to a 3-slice RGB stack, using the s'th color
+  public static void addToRGB(ImageStack targetIs, ImageProcessor ip, int s, int n, int startHue, int hueRange) {
+    double stepSize = (hueRange == 360) ? hueRange*1.0/n : hueRange*1.0/(n-1);
+    int hue = (int) startHue + (int) Math.round( (s-1)*stepSize );
+    int[] rgb = hueToRGB(hue%360);
+    float[] pixels = (float[]) ip.getPixels();
+    for (int i = 0; i < 3; i++) {
+      // in place, same as adding a copy of ip multiplied with rgb[i]/n
+      float[] target = (float[]) targetIs.getPixels(i+1);
+      float factor = (float) (rgb[i]*1.0/n);
+      for (int p = 0; p < pixels.length; p++) {
+	target[p] += pixels[p]*factor;
+      }
+    }
+  }
+  
+  // convert a (partial) 32 bit RGB stack to the RGB image cp, scaled to its
+  // global min and max (used for previews)
+  public static void stackToColorProcessor(ImageStack rgbIs, ColorProcessor cp) {
+    float[][] channels = new float[3][];
+    double min = Double.MAX_VALUE;
+    double max = -Double.MAX_VALUE;
+    for (int i = 0; i < 3; i++) {
+      channels[i] = (float[]) rgbIs.getProcessor(i+1).getPixels();
+      for (int p = 0; p < channels[i].length; p++) {
+	min = Math.min(min, channels[i][p]);
+	max = Math.max(max, channels[i][p]);
+      }
+    }
+    double scale = (max > min) ? 255.0/(max - min) : 0;
+    int[] pixels = (int[]) cp.getPixels();
+    for (int p = 0; p < pixels.length; p++) {
+      int r = (int) Math.round((channels[0][p] - min)*scale);
+      int g = (int) Math.round((channels[1][p] - min)*scale);
+      int b = (int) Math.round((channels[2][p] - min)*scale);
+      pixels[p] = (r << 16) | (g << 8) | b;
+    }
+  }
+  
   // convert hue value to array with R,G and B values
   public static int[] hueToRGB(int hue) {
     // increment/decrement for RGB values, per deg
@@ -0,0 +1,681 @@
+package mapping;
+
+import ij.*;
+import ij.process.*;
+import ij.plugin.*;
+import ij.plugin.filter.*;
+import filters.*;
+import java.io.*;
+import java.util.*;
+
+public class OrientationMapper {
+
+/* Orientation mapping pipeline without user interaction, OrientationMapping
+
+  Version: 1.0 (2026-10-19)
+
+  All parameters have to be set (or loaded from a parameter file) before
+  calling run(). The StdDev radii are used as they are, i.e. they have to be
+  estimated by the caller if needed (estimateStdDevRadii).
+  Three methods are available: GLOBAL Fourier filtering of the whole (padded)
+  image followed by the StdDev filter, LOCAL FFTs of overlapping windows
+  (see filters.LocalFFT), and ADAPTIVE coarse-to-fine mapping: the whole image
+  is filtered with n/refineFactor (wider) orientations first. The StdDev
+  filter of all n (narrower) orientations is then only evaluated at the
+  low-confidence pixels, i.e. pixels where the two strongest orientations are
+  close, and from a decimated image for the remaining pixels (see refine).
+  Intermediate results are passed to a Listener as soon as they are available,
+  and a running pipeline can be stopped with cancel() from any other thread.
+  All intermediate images are kept in a BufferPool and reused for each
+  orientation, and for subsequent images (batch processing) of the same size.
+  The buffers are released when an image of another size is processed.
+
+  Copyright (c) 2026 OrientationMapping contributors
+  Parts moved from Orientation_Mapping.java,
+  Copyright (c) 2016 Michael Mohn and Ossi Lehtinen, Ulm University
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    ----------------------------------------------------------------------------
+*/
+
+  // Receives progress information and intermediate results. All methods are
+  // called from the thread running the pipeline.
+  public interface Listener {
+    void showStage(String stage, double progress);
+    void filterMasksCreated(ImageStack filterMasksIs); // GLOBAL method only
+    void normalized(ImageProcessor normalizedIp);
+    // fftFilteredIp is null for the LOCAL and ADAPTIVE methods,
+    // mappedIs contains the (unnormalized) sum of orientations 1 ... s.
+    // The images are reused for the next orientation, i.e. have to be duplicated
+    // if they are needed later on.
+    void orientationDone(int s, ImageProcessor fftFilteredIp, ImageProcessor filteredIp, ImageStack mappedIs);
+    // normalized 32 bit RGB stack, right before conversion to 8 bit
+    void mapped(ImageStack mappedIs);
+  }
+
+  // empty Listener, for subclassing
+  public static class Adapter implements Listener {
+    public void showStage(String stage, double progress) {}
+    public void filterMasksCreated(ImageStack filterMasksIs) {}
+    public void normalized(ImageProcessor normalizedIp) {}
+    public void orientationDone(int s, ImageProcessor fftFilteredIp, ImageProcessor filteredIp, ImageStack mappedIs) {}
+    public void mapped(ImageStack mappedIs) {}
+  }
+
+  // Methods
+  public static final int GLOBAL = 0;
+  public static final int LOCAL = 1;
+  public static final int ADAPTIVE = 2;
+  public static final String[] METHODS = {"Global Fourier filtering", "Local window FFT", "Adaptive coarse-to-fine"};
+
+  // Parameters & default values
+  public int method = GLOBAL;
+  public int windowSize = 128; // window width (LOCAL method)
+  public int nThreads = Prefs.getThreads(); // number of threads (LOCAL method)
+  public int refineFactor = 3; // odd, coarse pass with n/refineFactor orientations (ADAPTIVE method)
+  public double confidenceThreshold = 0.2; // refine if (1st - 2nd strongest) < threshold*1st (ADAPTIVE method)
+  public int n = 3; // number of orientations
+  public int m = 6; // rotational symmetry
+  public double r0, phi0; // position of the selected reflection
+  public double rmin, rmax; // radii for low and high freq. threshold
+  public int fhtSize; // size of the FHT which r0, rmin and rmax refer to (see setFHTSize)
+  public boolean doNormalize = true;
+  public double stdDevRadius1; // radius of the stdDev filter (normalization)
+  public double stdDevRadius2; // radius of the stdDev filter (mapping)
+  public double blurRadius = 50; // radius of the Gaussian blur (normalization)
+  public int startHue = 0, hueRange = 360; // hues range for RGB mapping
+
+  Listener listener = new Adapter();
+  volatile boolean canceled = false;
+
+  // buffers (see getBufferPool)
+  BufferPool pool = new BufferPool();
+  ArrayList<FloatProcessor> planes = new ArrayList<FloatProcessor>();
+  int planeWidth, planeHeight; // size of the pooled planes
+  FHT fht, tempFHT;
+  ImageStack filterMasksIs, coarseMasksIs;
+  String filterMasksKey, coarseMasksKey;
+  double refinedFraction; // ADAPTIVE method, see getRefinedFraction
+
+
+  public void setListener(Listener listener) {
+    this.listener = (listener == null) ? new Adapter() : listener;
+  }
+
+  // stop the pipeline after the current stage, and all following runs
+  public void cancel() {
+    canceled = true;
+  }
+
+  public boolean isCanceled() {
+    return canceled || Thread.currentThread().isInterrupted();
+  }
+
+  // ADAPTIVE method: number of orientations of the coarse pass
+  public int getCoarseCount() {
+    if ( (refineFactor < 3) || (refineFactor%2 == 0) ) {
+      throw new IllegalArgumentException("Refinement factor must be odd and at least 3");
+    }
+    if ( (n%refineFactor != 0) || (n/refineFactor < 2) ) {
+      throw new IllegalArgumentException("Number of orientations must be a multiple of "
+					 + refineFactor + " (refinement factor) and at least " + 2*refineFactor);
+    }
+    return n/refineFactor;
+  }
+
+  // ADAPTIVE method: fraction of pixels refined in the last run
+  public double getRefinedFraction() {
+    return refinedFraction;
+  }
+
+
+  // scale r0, rmin and rmax to the FHT of an image with a different (padded) size,
+  // e.g. tiles or frames of another size than the image the parameters were selected in
+  public void setFHTSize(int newFhtSize) {
+    if ( (fhtSize > 0) && (newFhtSize != fhtSize) ) {
+      double scale = newFhtSize*1.0/fhtSize;
+      r0 *= scale;
+      rmin *= scale;
+      rmax *= scale;
+    }
+    fhtSize = newFhtSize;
+  }
+
+  // replace StdDev radii <= 0 with an estimated value (~2x lattice spacing),
+  // r0 has to refer to the same fhtSize (see setFHTSize)
+  public void estimateStdDevRadii(int fhtSize) {
+    if (stdDevRadius1 <= 0) stdDevRadius1 = fhtSize*2.0/r0;
+    if (stdDevRadius2 <= 0) stdDevRadius2 = fhtSize*2.0/r0;
+  }
+
+
+  /* Parameter files (java.util.Properties), e.g. for batch processing */
+
+  public void saveParameters(String path) throws IOException {
+    Properties props = new Properties();
+    props.setProperty("method", "" + method);
+    props.setProperty("windowSize", "" + windowSize);
+    props.setProperty("refineFactor", "" + refineFactor);
+    props.setProperty("confidenceThreshold", "" + confidenceThreshold);
+    props.setProperty("n", "" + n);
+    props.setProperty("m", "" + m);
+    props.setProperty("r0", "" + r0);
+    props.setProperty("phi0", "" + phi0);
+    props.setProperty("rmin", "" + rmin);
+    props.setProperty("rmax", "" + rmax);
+    props.setProperty("fhtSize", "" + fhtSize);
+    props.setProperty("doNormalize", "" + doNormalize);
+    props.setProperty("stdDevRadius1", "" + stdDevRadius1);
+    props.setProperty("stdDevRadius2", "" + stdDevRadius2);
+    props.setProperty("blurRadius", "" + blurRadius);
+    props.setProperty("startHue", "" + startHue);
+    props.setProperty("hueRange", "" + hueRange);
+    OutputStream os = new FileOutputStream(path);
+    try {
+      props.store(os, "OrientationMapping parameters");
+    } finally {
+      os.close();
+    }
+  }
+
+  // missing values keep their current (default) value
+  public void loadParameters(String path) throws IOException {
+    Properties props = new Properties();
+    InputStream is = new FileInputStream(path);
+    try {
+      props.load(is);
+    } finally {
+      is.close();
+    }
+    try {
+      method = Integer.parseInt(props.getProperty("method", "" + method));
+      windowSize = Integer.parseInt(props.getProperty("windowSize", "" + windowSize));
+      refineFactor = Integer.parseInt(props.getProperty("refineFactor", "" + refineFactor));
+      confidenceThreshold = Double.parseDouble(props.getProperty("confidenceThreshold", "" + confidenceThreshold));
+      n = Integer.parseInt(props.getProperty("n", "" + n));
+      m = Integer.parseInt(props.getProperty("m", "" + m));
+      r0 = Double.parseDouble(props.getProperty("r0", "" + r0));
+      phi0 = Double.parseDouble(props.getProperty("phi0", "" + phi0));
+      rmin = Double.parseDouble(props.getProperty("rmin", "" + rmin));
+      rmax = Double.parseDouble(props.getProperty("rmax", "" + rmax));
+      fhtSize = Integer.parseInt(props.getProperty("fhtSize", "" + fhtSize));
+      doNormalize = Boolean.parseBoolean(props.getProperty("doNormalize", "" + doNormalize));
+      stdDevRadius1 = Double.parseDouble(props.getProperty("stdDevRadius1", "" + stdDevRadius1));
+      stdDevRadius2 = Double.parseDouble(props.getProperty("stdDevRadius2", "" + stdDevRadius2));
+      blurRadius = Double.parseDouble(props.getProperty("blurRadius", "" + blurRadius));
+      startHue = Integer.parseInt(props.getProperty("startHue", "" + startHue));
+      hueRange = Integer.parseInt(props.getProperty("hueRange", "" + hueRange));
+    } catch (NumberFormatException nfe) {
+      throw new IOException("Invalid parameter file " + path + ": " + nfe.getMessage());
+    }
+  }
+
+
+  /* Buffers, reused for all orientations and for subsequent images */
+
+  public BufferPool getBufferPool() {
+    return pool;
+  }
+
+  // share a BufferPool, e.g. between several mappers
+  public void setBufferPool(BufferPool pool) {
+    this.pool = pool;
+  }
+
+  // the filter masks are only created again if the size or the parameters change
+  ImageStack getFilterMasks(int fhtSize) {
+    String key = getMasksKey(fhtSize, n);
+    if ( !key.equals(filterMasksKey) ) {
+      filterMasksIs = FilterMasks.createStack(fhtSize, fhtSize, n, m, phi0, rmin, rmax);
+      filterMasksKey = key;
+    }
+    return filterMasksIs;
+  }
+
+  // same for the coarse pass of the ADAPTIVE method (n/refineFactor orientations)
+  ImageStack getCoarseMasks(int fhtSize) {
+    int nCoarse = getCoarseCount();
+    String key = getMasksKey(fhtSize, nCoarse);
+    if ( !key.equals(coarseMasksKey) ) {
+      coarseMasksIs = FilterMasks.createStack(fhtSize, fhtSize, nCoarse, m, phi0, rmin, rmax);
+      coarseMasksKey = key;
+    }
+    return coarseMasksIs;
+  }
+
+  String getMasksKey(int fhtSize, int nOrientations) {
+    return fhtSize + "," + nOrientations + "," + m + "," + phi0 + "," + rmin + "," + rmax;
+  }
+
+  // FHT of the image and working copy for the filtered FHTs
+  void prepareFHTs(int fhtSize) {
+    if ( (fht == null) || (fht.getWidth() != fhtSize) ) {
+      fht = new FHT(new FloatProcessor(fhtSize, fhtSize));
+      tempFHT = new FHT(new FloatProcessor(fhtSize, fhtSize));
+    }
+  }
+
+  // pooled plane, released at the end of run()
+  FloatProcessor getPlane(int width, int height, boolean zero) {
+    FloatProcessor fp = zero ? pool.getZeroProcessor(width, height) : pool.getProcessor(width, height);
+    planes.add(fp);
+    return fp;
+  }
+
+
+  /* Create the orientation map (RGB) of ip, or return null if canceled */
+  public ImagePlus run(ImageProcessor ip, String title) {
+    // keep the buffers of one image size only, like the FHTs (prepareFHTs)
+    if ( (ip.getWidth() != planeWidth) || (ip.getHeight() != planeHeight) ) {
+      pool.clear();
+      planeWidth = ip.getWidth();
+      planeHeight = ip.getHeight();
+    }
+    try {
+      return createMap(ip, title);
+    } finally {
+      for (FloatProcessor fp : planes) pool.release(fp);
+      planes.clear();
+    }
+  }
+
+  ImagePlus createMap(ImageProcessor ip, String title) {
+    int width = ip.getWidth();
+    int height = ip.getHeight();
+    int fhtSize = Padding.getPaddedSize(ip);
+
+    if (method == ADAPTIVE) getCoarseCount(); // check the parameters before doing anything
+
+    // create filter masks
+    ImageStack filterMasksIs = null;
+    if (method == GLOBAL) {
+      listener.showStage("Creating filter masks", 0);
+      filterMasksIs = getFilterMasks(fhtSize);
+      listener.filterMasksCreated(filterMasksIs);
+      if ( isCanceled() ) return null;
+    }
+
+    // normalize the original image
+    ImageProcessor ip2 = ip;
+    if ( doNormalize ) {
+      listener.showStage("Normalizing contrast", 0);
+      ip2 = getPlane(width, height, false);
+      Normalize.divideStdDevBlur(ip, stdDevRadius1, blurRadius, getPlane(width, height, false), (FloatProcessor) ip2);
+      listener.normalized(ip2);
+      if ( isCanceled() ) return null;
+    }
+
+    ImageStack mappedIs = MapRGB.createRGBStack(width, height, pool);
+    for (int i = 1; i <= 3; i++) planes.add((FloatProcessor) mappedIs.getProcessor(i));
+    if (method == LOCAL) {
+      // local strengths of all orientations, added to the RGB stack one by one
+      final String stage = "Local FFTs (" + LocalFFT.getWindowSize(ip2, windowSize) + " px windows)";
+      final ImageStack rgbIs = mappedIs;
+      listener.showStage(stage, 0);
+      LocalFFT.Monitor monitor = new LocalFFT.Monitor() {
+	public boolean rowDone(int rows, int nRows) {
+	  listener.showStage(stage, rows*1.0/nRows); // the plugin checks for ESC here
+	  return isCanceled();
+	}
+	public boolean orientationDone(int s, FloatProcessor filteredIp) {
+	  MapRGB.addToRGB(rgbIs, filteredIp, s, n, startHue, hueRange);
+	  listener.orientationDone(s, null, filteredIp, rgbIs);
+	  return isCanceled();
+	}
+      };
+      if ( !LocalFFT.filter(ip2, windowSize, fhtSize, n, m, phi0, rmin, rmax, nThreads, getPlane(width, height, false), monitor) ) return null;
+    } else {
+      // calculate the FHT of the original or normalized image
+      listener.showStage("Transforming", 0);
+      prepareFHTs(fhtSize);
+      Padding.padInto(ip2, fht);
+      fht.transform();
+      fht.swapQuadrants(); // zero freq. at center of image (like in PowerSpectrum)
+      if ( isCanceled() ) return null;
+      FloatProcessor fftFilteredIp = getPlane(width, height, false);
+
+      if (method == ADAPTIVE) {
+	// coarse pass: all orientation strengths are kept for the confidence test
+	int nCoarse = getCoarseCount();
+	ImageStack coarseMasksIs = getCoarseMasks(fhtSize);
+	FloatProcessor[] coarseIps = new FloatProcessor[nCoarse];
+	for (int c = 0; c < nCoarse; c++) {
+	  listener.showStage("Coarse filtering orientation " + (c+1) + "/" + nCoarse, c*0.5/nCoarse);
+	  coarseIps[c] = getPlane(width, height, false);
+	  filterOrientation((byte[]) coarseMasksIs.getPixels(c+1), fftFilteredIp, coarseIps[c]);
+	  if ( isCanceled() ) return null;
+	}
+	int[] lowConfidence = findLowConfidence(coarseIps);
+	if ( !refine(fhtSize, coarseIps, fftFilteredIp, lowConfidence, mappedIs) ) return null;
+      } else {
+	// for each orientation, filter and add the result to the RGB stack
+	// (all in place, i.e. in the same buffers for each orientation)
+	FloatProcessor filteredIp = getPlane(width, height, false);
+	for (int s = 1; s <= n; s++) {
+	  listener.showStage("Filtering orientation " + s + "/" + n, (s-1)*1.0/n);
+	  filterOrientation((byte[]) filterMasksIs.getPixels(s), fftFilteredIp, filteredIp);
+	  MapRGB.addToRGB(mappedIs, filteredIp, s, n, startHue, hueRange);
+	  listener.orientationDone(s, fftFilteredIp, filteredIp, mappedIs);
+	  if ( isCanceled() ) return null;
+	}
+      }
+    }
+    if ( isCanceled() ) return null;
+
+    // normalize the 32 bit RGB stack
+    listener.showStage("Creating orientation map", 1);
+    double globalMin = mappedIs.getProcessor(1).getStatistics().min;
+    double globalMax = mappedIs.getProcessor(1).getStatistics().max;
+    for (int s = 2; s <= 3; s++) {
+      double tempMin = mappedIs.getProcessor(s).getStatistics().min;
+      double tempMax = mappedIs.getProcessor(s).getStatistics().max;
+      globalMin = Math.min(globalMin, tempMin);
+      globalMax = Math.max(globalMax, tempMax);
+    }
+    double range = globalMax - globalMin;
+    for (int s = 1; s <= 3; s++) {
+      mappedIs.getProcessor(s).subtract(globalMin);
+      mappedIs.getProcessor(s).multiply(1.0/range);
+    }
+    listener.mapped(mappedIs);
+
+    // convert to 8 bit and create RGB image
+    ImagePlus result = new ImagePlus("Orientation Map of " + title, mappedIs);
+    new ContrastEnhancer().stretchHistogram(result, 0.5); // very important for 8bit conversion
+    new StackConverter(result).convertToGray8();
+    new ImageConverter(result).convertRGBStackToRGB();
+    return result;
+  }
+
+  // Fourier filter, then apply variance filter and sqrt (filteredIp)
+  void filterOrientation(byte[] mask, FloatProcessor fftFilteredIp, FloatProcessor filteredIp) {
+    fourierFilter(mask, fftFilteredIp);
+    System.arraycopy(fftFilteredIp.getPixels(), 0, filteredIp.getPixels(), 0, fftFilteredIp.getPixelCount());
+    new RankFilters().rank(filteredIp, stdDevRadius2, RankFilters.VARIANCE);
+    filteredIp.sqrt();
+  }
+
+  // multiply filter mask and (swapped) FHT, perform inverse transform (in tempFHT)
+  // and crop the result to the image size (fftFilteredIp)
+  void fourierFilter(byte[] mask, FloatProcessor fftFilteredIp) {
+    float[] fhtPixels = (float[]) fht.getPixels();
+    float[] tempPixels = (float[]) tempFHT.getPixels();
+    for (int p = 0; p < tempPixels.length; p++) {
+      tempPixels[p] = fhtPixels[p]*(mask[p] & 0xff);
+    }
+    tempFHT.swapQuadrants();
+    tempFHT.inverseTransform();
+    Padding.cropInto(tempFHT, fftFilteredIp);
+  }
+
+  // indices of the pixels where the two strongest (coarse) orientations are close
+  int[] findLowConfidence(FloatProcessor[] coarseIps) {
+    int size = coarseIps[0].getPixelCount();
+    float[][] strengths = new float[coarseIps.length][];
+    for (int c = 0; c < coarseIps.length; c++) strengths[c] = (float[]) coarseIps[c].getPixels();
+    int[] indices = new int[size];
+    int count = 0;
+    for (int p = 0; p < size; p++) {
+      float first = 0, second = 0;
+      for (int c = 0; c < strengths.length; c++) {
+	float v = strengths[c][p];
+	if (v > first) {
+	  second = first;
+	  first = v;
+	} else if (v > second) {
+	  second = v;
+	}
+      }
+      if ( (first > 0) && (first - second < confidenceThreshold*first) ) indices[count++] = p;
+    }
+    refinedFraction = count*1.0/size;
+    return Arrays.copyOf(indices, count);
+  }
+
+  /* Fine orientations: the inverse transform is needed for the whole image,
+     but the StdDev filter (most of the time per orientation) is evaluated at
+     the low-confidence pixels only, with the same values as the GLOBAL method
+     with n orientations. For all other pixels, only the strongest coarse
+     orientation c is refined: the strengths of the fine orientations
+     c*refineFactor +- refineFactor/2 covering its sector are interpolated from
+     a decimated plane (blocks of ~radius/2 px, see blockStdDev) and scaled
+     such that their squared strengths add up to the squared coarse strength.
+     The other coarse orientations are kept at the centered fine orientation.
+     The fine orientations are filtered group by group; the orientations of a
+     complete group are added to the RGB stack right away, in ascending order
+     (the last ones belong to the first group). Returns false if canceled.
+  */
+  boolean refine(int fhtSize, FloatProcessor[] coarseIps, FloatProcessor fftFilteredIp, int[] lowConfidence, ImageStack mappedIs) {
+    int width = fftFilteredIp.getWidth();
+    int height = fftFilteredIp.getHeight();
+    int nCoarse = coarseIps.length;
+    int half = refineFactor/2;
+    int step = Math.max(1, (int) Math.round(stdDevRadius2/2));
+    int bWidth = (width + step - 1)/step;
+    int bHeight = (height + step - 1)/step;
+    double[] blockSums = new double[bWidth*bHeight];
+    double[] blockSums2 = new double[bWidth*bHeight];
+    float[][] blockValues = new float[refineFactor][bWidth*bHeight]; // current group
+    float[] values = new float[lowConfidence.length];
+    ImageStack fineMasksIs = getFilterMasks(fhtSize);
+    int[] lineRadii = makeLineRadii(stdDevRadius2);
+
+    // strongest coarse orientation of each pixel, -1 for the refined pixels
+    float[][] coarse = new float[nCoarse][];
+    for (int c = 0; c < nCoarse; c++) coarse[c] = (float[]) coarseIps[c].getPixels();
+    int[] strongest = new int[width*height];
+    for (int p = 0; p < strongest.length; p++) {
+      for (int c = 1; c < nCoarse; c++) if (coarse[c][p] > coarse[strongest[p]][p]) strongest[p] = c;
+    }
+    for (int p : lowConfidence) strongest[p] = -1;
+    // bilinear interpolation between the block centers
+    int[] bx0 = new int[width];
+    float[] fx = new float[width];
+    for (int x = 0; x < width; x++) {
+      double g = (x + 0.5)/step - 0.5;
+      bx0[x] = Math.max(0, Math.min(bWidth - 2, (int) Math.floor(g)));
+      fx[x] = (float) Math.max(0, Math.min(1, g - bx0[x]));
+    }
+    int bx1Max = bWidth - 1;
+
+    FloatProcessor[] fineIps = new FloatProcessor[n]; // orientations not added yet
+    ArrayList<FloatProcessor> spareIps = new ArrayList<FloatProcessor>();
+    float[][] fine = new float[refineFactor][];
+    float[] group = new float[refineFactor];
+    int next = 0; // next orientation for the RGB stack
+    for (int c = 0; c < nCoarse; c++) {
+      for (int d = -half; d <= half; d++) {
+	int s = (c*refineFactor + d + n)%n;
+	int count = c*refineFactor + d + half + 1;
+	listener.showStage("Refining orientation " + count + "/" + n + " ("
+			   + String.format("%.1f", refinedFraction*100) + "% of the pixels)", 0.5 + (count-1)*0.5/n);
+	fourierFilter((byte[]) fineMasksIs.getPixels(s+1), fftFilteredIp);
+	fineIps[s] = spareIps.isEmpty() ? getPlane(width, height, false) : spareIps.remove(spareIps.size() - 1);
+	fine[d + half] = (float[]) fineIps[s].getPixels();
+	Arrays.fill(fine[d + half], 0);
+	stdDevAt(fftFilteredIp, lineRadii, lowConfidence, values);
+	for (int i = 0; i < lowConfidence.length; i++) fine[d + half][lowConfidence[i]] = values[i];
+	blockStdDev(fftFilteredIp, step, stdDevRadius2, blockSums, blockSums2, blockValues[d + half]);
+	if ( isCanceled() ) return false;
+      }
+
+      // remaining pixels of the group
+      for (int y = 0; y < height; y++) {
+	double g = (y + 0.5)/step - 0.5;
+	int by0 = Math.max(0, Math.min(bHeight - 2, (int) Math.floor(g)));
+	float fy = (float) Math.max(0, Math.min(1, g - by0));
+	int row0 = by0*bWidth;
+	int row1 = Math.min(by0 + 1, bHeight - 1)*bWidth;
+	for (int x = 0; x < width; x++) {
+	  int p = y*width + x;
+	  if (strongest[p] < 0) continue; // refined
+	  if (strongest[p] != c) {
+	    fine[half][p] = coarse[c][p]; // centered on coarse orientation c
+	    continue;
+	  }
+	  int b00 = row0 + bx0[x];
+	  int b01 = row0 + Math.min(bx0[x] + 1, bx1Max);
+	  int b10 = row1 + bx0[x];
+	  int b11 = row1 + Math.min(bx0[x] + 1, bx1Max);
+	  double sum = 0;
+	  for (int k = 0; k < refineFactor; k++) {
+	    float[] block = blockValues[k];
+	    float top = block[b00]*(1 - fx[x]) + block[b01]*fx[x];
+	    float bottom = block[b10]*(1 - fx[x]) + block[b11]*fx[x];
+	    group[k] = top*(1 - fy) + bottom*fy;
+	    sum += group[k]*group[k];
+	  }
+	  if (sum > 0) {
+	    float factor = (float) (coarse[c][p]/Math.sqrt(sum));
+	    for (int k = 0; k < refineFactor; k++) fine[k][p] = group[k]*factor;
+	  } else {
+	    fine[half][p] = coarse[c][p];
+	  }
+	}
+      }
+
+      // add the complete orientations to the RGB stack
+      int last = (c == nCoarse - 1) ? n - 1 : c*refineFactor + half;
+      for (; next <= last; next++) {
+	MapRGB.addToRGB(mappedIs, fineIps[next], next + 1, n, startHue, hueRange);
+	listener.orientationDone(next + 1, null, fineIps[next], mappedIs);
+	spareIps.add(fineIps[next]);
+	fineIps[next] = null;
+      }
+      if ( isCanceled() ) return false;
+    }
+    return true;
+  }
+
+  /* Decimated StdDev filter: the sums of the values in blocks of step x step
+     pixels are added up for all blocks within the radius around each block.
+     values[by*bWidth + bx] for the block centers, sums and sums2 are buffers
+     of the same size.
+  */
+  static void blockStdDev(FloatProcessor ip, int step, double radius, double[] sums, double[] sums2, float[] values) {
+    int width = ip.getWidth();
+    int height = ip.getHeight();
+    int bWidth = (width + step - 1)/step;
+    int bHeight = (height + step - 1)/step;
+    float[] pixels = (float[]) ip.getPixels();
+    Arrays.fill(sums, 0);
+    Arrays.fill(sums2, 0);
+    for (int y = 0; y < height; y++) {
+      int row = (y/step)*bWidth;
+      for (int x = 0; x < width; x++) {
+	double v = pixels[y*width + x];
+	sums[row + x/step] += v;
+	sums2[row + x/step] += v*v;
+      }
+    }
+    int bRadius = (int) (radius/step);
+    double bRadius2 = (radius/step)*(radius/step);
+    for (int by = 0; by < bHeight; by++) {
+      for (int bx = 0; bx < bWidth; bx++) {
+	double sum = 0, sum2 = 0;
+	int count = 0;
+	for (int dy = -bRadius; dy <= bRadius; dy++) {
+	  int y = by + dy;
+	  if ( (y < 0) || (y >= bHeight) ) continue;
+	  for (int dx = -bRadius; dx <= bRadius; dx++) {
+	    int x = bx + dx;
+	    if ( (x < 0) || (x >= bWidth) || (dx*dx + dy*dy > bRadius2) ) continue;
+	    sum += sums[y*bWidth + x];
+	    sum2 += sums2[y*bWidth + x];
+	    count += Math.min(step, width - x*step)*Math.min(step, height - y*step);
+	  }
+	}
+	double variance = (sum2 - sum*sum/count)/count;
+	values[by*bWidth + bx] = (float) Math.sqrt(Math.max(0, variance));
+      }
+    }
+  }
+
+  // circular kernel like RankFilters: {-dx, +dx} for each line dy = -kRadius ... kRadius
+  static int[] makeLineRadii(double radius) {
+    if ( (radius >= 1.5) && (radius < 1.75) ) radius = 1.75;
+    else if ( (radius >= 2.5) && (radius < 2.85) ) radius = 2.85;
+    int r2 = (int) (radius*radius) + 1;
+    int kRadius = (int) Math.sqrt(r2 + 1e-10);
+    int[] lineRadii = new int[2*(2*kRadius + 1)];
+    for (int dy = -kRadius; dy <= kRadius; dy++) {
+      int dx = (int) Math.sqrt(r2 - dy*dy + 1e-10);
+      lineRadii[2*(dy + kRadius)] = -dx;
+      lineRadii[2*(dy + kRadius) + 1] = dx;
+    }
+    return lineRadii;
+  }
+
+  /* StdDev filter (RankFilters.VARIANCE and sqrt) at the given pixels only,
+     values[i] for pixel indices[i] (in ascending order). Pixels outside of the
+     image are replaced by the nearest edge pixels. The sums along each kernel
+     line are taken from cumulative sums of the image lines (kept for the
+     2*kRadius+1 lines around the current pixel).
+  */
+  static void stdDevAt(FloatProcessor ip, int[] lineRadii, int[] indices, float[] values) {
+    int width = ip.getWidth();
+    int height = ip.getHeight();
+    float[] pixels = (float[]) ip.getPixels();
+    int kRadius = lineRadii.length/4;
+    int kHeight = 2*kRadius + 1;
+    int kNPoints = 0;
+    for (int k = 0; k < kHeight; k++) kNPoints += lineRadii[2*k + 1] - lineRadii[2*k] + 1;
+    double[][] sums = new double[kHeight][width + 1]; // sums[y%kHeight][x]: sum of line y up to x-1
+    double[][] sums2 = new double[kHeight][width + 1];
+    int cachedTo = -1; // last image line in the cache
+    for (int i = 0; i < indices.length; i++) {
+      int x = indices[i]%width;
+      int y = indices[i]/width;
+      int from = Math.max(0, y - kRadius);
+      int to = Math.min(height - 1, y + kRadius);
+      for (int line = Math.max(from, cachedTo + 1); line <= to; line++) {
+	double[] lineSums = sums[line%kHeight];
+	double[] lineSums2 = sums2[line%kHeight];
+	for (int xx = 0; xx < width; xx++) {
+	  double v = pixels[line*width + xx];
+	  lineSums[xx + 1] = lineSums[xx] + v;
+	  lineSums2[xx + 1] = lineSums2[xx] + v*v;
+	}
+      }
+      cachedTo = Math.max(cachedTo, to);
+      double sum = 0, sum2 = 0;
+      for (int k = 0; k < kHeight; k++) {
+	int line = Math.min(height - 1, Math.max(0, y + k - kRadius));
+	double[] lineSums = sums[line%kHeight];
+	double[] lineSums2 = sums2[line%kHeight];
+	int x1 = x + lineRadii[2*k];
+	int x2 = x + lineRadii[2*k + 1];
+	int left = Math.max(0, x1);
+	int right = Math.min(width - 1, x2);
+	sum += lineSums[right + 1] - lineSums[left];
+	sum2 += lineSums2[right + 1] - lineSums2[left];
+	if (x1 < 0) { // edge pixels
+	  double v = pixels[line*width];
+	  sum += -x1*v;
+	  sum2 += -x1*v*v;
+	}
+	if (x2 > width - 1) {
+	  double v = pixels[line*width + width - 1];
+	  sum += (x2 - width + 1)*v;
+	  sum2 += (x2 - width + 1)*v*v;
+	}
+      }
+      double variance = (sum2 - sum*sum/kNPoints)/kNPoints;
+      values[i] = (float) Math.sqrt(Math.max(0, variance));
+    }
+  }
+
+
+}